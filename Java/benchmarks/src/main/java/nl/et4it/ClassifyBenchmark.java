@@ -0,0 +1,65 @@
+package nl.et4it;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Classifying a sentence end to end, per sentence length. Every invocation
+ * classifies the next of a fixed set of generated sentences.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClassifyBenchmark {
+	// Sentences per length, a power of two
+	static final int SENTENCES = 64;
+
+	@Param({ "en_UK" })
+	String language;
+
+	@Param({ "5", "20", "100", "1000" })
+	int length;
+
+	private RBEMPolarity polarity;
+	private RBEMEmotion emotion;
+	private String[][][] sentences;
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		polarity = new RBEMPolarity();
+		polarity.loadModel(language);
+		emotion = new RBEMEmotion();
+		emotion.loadModel(language);
+		sentences = new SentenceGenerator(language, 42).sentences(length,
+				SENTENCES);
+	}
+
+	@Benchmark
+	public Pair<String, Double> polarity() throws Exception {
+		String[][] sentence = sentences[next++ & (SENTENCES - 1)];
+		return polarity.classify(sentence[0], sentence[1]);
+	}
+
+	@Benchmark
+	public HashMap<String, Double> emotion() throws Exception {
+		String[][] sentence = sentences[next++ & (SENTENCES - 1)];
+		return emotion.classify(sentence[0], sentence[1], false);
+	}
+}
@@ -0,0 +1,43 @@
+package nl.et4it;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the bundled models of every language from their JSON resources,
+ * up to the compiled model
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadModelBenchmark {
+	@Param({ "en_UK", "nl_NL", "de_DE" })
+	String language;
+
+	@Benchmark
+	public RBEMModel polarity() {
+		RBEMPolarity polarity = new RBEMPolarity();
+		polarity.loadModel(language);
+		return polarity.getModel();
+	}
+
+	@Benchmark
+	public RBEMModel emotion() {
+		RBEMEmotion emotion = new RBEMEmotion();
+		emotion.loadModel(language);
+		return emotion.getModel();
+	}
+}
@@ -0,0 +1,127 @@
+package nl.et4it;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The phases of classifying a sentence on their own: matching the patterns,
+ * removing the subsumed ones, applying the rules to get the emissions and
+ * summing these into the scores. The input of every phase is the output of
+ * the phases before it, computed once up front for a fixed set of generated
+ * sentences.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PhaseBenchmark {
+	// Sentences per length, a power of two
+	static final int SENTENCES = 64;
+
+	@Param({ "en_UK" })
+	String language;
+
+	@Param({ "polarity", "emotion" })
+	String model;
+
+	@Param({ "5", "20", "100", "1000" })
+	int length;
+
+	private RBEMPolarity polarity;
+	private RBEMEmotion emotion;
+	private PatternIndex index;
+	private int typeCount;
+	private boolean strict;
+
+	private final ClassificationContext context = new ClassificationContext();
+	private EncodedSentence[] sentences;
+	// All matches of every sentence
+	private Matches[] matches;
+	// The matches that are not subsumed, per pattern type, of every sentence
+	private Matches[][] patterns;
+	// The emissions of every sentence
+	private double[][] emissions;
+	private final double[] scores = new double[AxisKernel.LANES];
+	private int next = 0;
+
+	@Setup
+	public void setup() throws Exception {
+		if (model.equals("polarity")) {
+			polarity = new RBEMPolarity();
+			polarity.loadModel(language);
+			index = polarity.getModel().index;
+			typeCount = RBEMPolarity.PATTERN_TYPES.length;
+			strict = polarity.strictSubsumption;
+		} else {
+			emotion = new RBEMEmotion();
+			emotion.loadModel(language);
+			index = emotion.getModel().index;
+			typeCount = RBEMEmotion.PATTERN_TYPES.length;
+			strict = emotion.strictSubsumption;
+		}
+
+		String[][][] generated = new SentenceGenerator(language, 42)
+				.sentences(length, SENTENCES);
+		sentences = new EncodedSentence[SENTENCES];
+		matches = new Matches[SENTENCES];
+		patterns = new Matches[SENTENCES][typeCount];
+		emissions = new double[SENTENCES][];
+		for (int s = 0; s < SENTENCES; s++) {
+			sentences[s] = new EncodedSentence();
+			sentences[s].encode(index.tokenSymbols, index.tagSymbols,
+					generated[s][0], generated[s][1]);
+			matches[s] = new Matches();
+			index.matchAll(sentences[s], matches[s]);
+			for (int t = 0; t < typeCount; t++)
+				patterns[s][t] = new Matches();
+			Subsumption.removeSubsumed(matches[s], patterns[s], strict);
+			emissions[s] = (polarity != null ? polarity.applyRules(context,
+					patterns[s], length) : emotion.applyRules(context,
+					patterns[s], length)).clone();
+		}
+	}
+
+	@Benchmark
+	public Matches matchPatterns() {
+		int s = next++ & (SENTENCES - 1);
+		index.matchAll(sentences[s], context.matches);
+		return context.matches;
+	}
+
+	@Benchmark
+	public Matches[] removeSubsumed() {
+		int s = next++ & (SENTENCES - 1);
+		Matches[] result = context.patterns(typeCount);
+		Subsumption.removeSubsumed(matches[s], result, strict);
+		return result;
+	}
+
+	@Benchmark
+	public Object emission() {
+		int s = next++ & (SENTENCES - 1);
+		if (polarity != null)
+			return polarity.applyRules(context, patterns[s], length);
+		return emotion.applyRules(context, patterns[s], length);
+	}
+
+	@Benchmark
+	public Object sumEmissions() {
+		int s = next++ & (SENTENCES - 1);
+		if (polarity != null)
+			return RBEMPolarity.score(emissions[s], length);
+		return RBEMEmotion.scores(emissions[s], scores, length, true);
+	}
+}
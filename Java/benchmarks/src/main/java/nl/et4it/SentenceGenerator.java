@@ -0,0 +1,138 @@
+package nl.et4it;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Generates tagged sentences for the benchmarks from the vocabulary of the
+ * bundled models, so no corpus is needed. Sentences are made of random words
+ * of the models, with whole patterns mixed in so that longer patterns match
+ * as well. Wildcards in patterns are filled in with random words, of the
+ * right POS-tag if the pattern asks for one. The same seed gives the same
+ * sentences.
+ */
+final class SentenceGenerator {
+	// Share of the positions a pattern is started at
+	private static final double PATTERN_RATE = 0.3;
+
+	private final List<String> words = new ArrayList<String>();
+	private final List<String> tags = new ArrayList<String>();
+	// Words per POS-tag
+	private final HashMap<String, List<String>> wordsByTag = new HashMap<String, List<String>>();
+	private final List<List<Pair<String, String>>> patterns = new ArrayList<List<Pair<String, String>>>();
+	private final Random random;
+
+	/**
+	 * Creates a generator over the polarity and emotion model of a language
+	 *
+	 * @param language
+	 *            String The language, like en_UK
+	 * @param seed
+	 *            Long The seed of the random sentences
+	 */
+	SentenceGenerator(String language, long seed) {
+		random = new Random(seed);
+		RBEMModelBuilder polarity = RBEMPolarity.modelBuilder();
+		polarity.loadModel(language);
+		RBEMModelBuilder emotion = RBEMEmotion.modelBuilder();
+		emotion.loadModel(language);
+		add(polarity);
+		add(emotion);
+		if (words.isEmpty())
+			throw new IllegalArgumentException("No model for " + language);
+	}
+
+	private void add(RBEMModelBuilder builder) {
+		for (HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> byFirst : builder.model
+				.values())
+			for (HashMap<Integer, HashMap<String, List<Pair<String, String>>>> byLength : byFirst
+					.values())
+				for (HashMap<String, List<Pair<String, String>>> byKey : byLength
+						.values())
+					for (List<Pair<String, String>> pattern : byKey.values()) {
+						patterns.add(pattern);
+						for (Pair<String, String> member : pattern)
+							if (!isWildcard(member.getLeft())
+									&& !isWildcard(member.getRight()))
+								addWord(member.getLeft(), member.getRight());
+					}
+	}
+
+	private void addWord(String word, String tag) {
+		List<String> tagged = wordsByTag.get(tag);
+		if (tagged == null) {
+			tagged = new ArrayList<String>();
+			wordsByTag.put(tag, tagged);
+		}
+		tagged.add(word);
+		words.add(word);
+		tags.add(tag);
+	}
+
+	private static boolean isWildcard(String symbol) {
+		return symbol.equals("_") || symbol.equals("*");
+	}
+
+	/**
+	 * Generates a sentence
+	 *
+	 * @param length
+	 *            Int The number of tokens
+	 * @return Array[Array[String]] The tokens and the POS-tags
+	 */
+	String[][] sentence(int length) {
+		String[] sentenceTokens = new String[length];
+		String[] sentenceTags = new String[length];
+		int i = 0;
+		while (i < length) {
+			if (random.nextDouble() < PATTERN_RATE) {
+				List<Pair<String, String>> pattern = patterns.get(random
+						.nextInt(patterns.size()));
+				for (int k = 0; k < pattern.size() && i < length; k++, i++) {
+					String token = pattern.get(k).getLeft();
+					String tag = pattern.get(k).getRight();
+					if (isWildcard(tag) || !wordsByTag.containsKey(tag)) {
+						int w = random.nextInt(words.size());
+						sentenceTokens[i] = isWildcard(token) ? words.get(w)
+								: token;
+						sentenceTags[i] = tags.get(w);
+					} else {
+						if (isWildcard(token)) {
+							List<String> tagged = wordsByTag.get(tag);
+							token = tagged.get(random.nextInt(tagged.size()));
+						}
+						sentenceTokens[i] = token;
+						sentenceTags[i] = tag;
+					}
+				}
+			} else {
+				int w = random.nextInt(words.size());
+				sentenceTokens[i] = words.get(w);
+				sentenceTags[i] = tags.get(w);
+				i++;
+			}
+		}
+		return new String[][] { sentenceTokens, sentenceTags };
+	}
+
+	/**
+	 * Generates sentences
+	 *
+	 * @param length
+	 *            Int The number of tokens of every sentence
+	 * @param count
+	 *            Int The number of sentences
+	 * @return Array[Array[Array[String]]] The tokens and the POS-tags of every
+	 *         sentence
+	 */
+	String[][][] sentences(int length, int count) {
+		String[][][] sentences = new String[count][][];
+		for (int s = 0; s < count; s++)
+			sentences[s] = sentence(length);
+		return sentences;
+	}
+}
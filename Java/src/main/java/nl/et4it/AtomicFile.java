@@ -0,0 +1,71 @@
+package nl.et4it;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes files as a whole or not at all: the content is written to a
+ * temporary file next to the target, forced to disk and then renamed over
+ * the target. Readers see either the old or the new file, never a partly
+ * written one, also when writing fails halfway.
+ */
+final class AtomicFile {
+	/**
+	 * Writes the content of a file
+	 */
+	interface Content {
+		void writeTo(OutputStream out) throws IOException;
+	}
+
+	private AtomicFile() {
+	}
+
+	/**
+	 * Writes a file
+	 *
+	 * @param file
+	 *            Path The file to write, replaced if it exists
+	 * @param content
+	 *            Content Writes the content to the stream it is given, which
+	 *            it should not close
+	 */
+	static void write(Path file, Content content) throws IOException {
+		Path target = file.toAbsolutePath();
+		// Created like any other file, so it gets the usual permissions
+		Path temporary = target.resolveSibling("." + target.getFileName()
+				+ "." + Long.toHexString(ThreadLocalRandom.current().nextLong())
+				+ ".tmp");
+		FileChannel channel = FileChannel.open(temporary,
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		boolean written = false;
+		try {
+			try {
+				OutputStream out = Channels.newOutputStream(channel);
+				content.writeTo(out);
+				out.flush();
+				channel.force(true);
+			} finally {
+				channel.close();
+			}
+
+			try {
+				Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, target,
+						StandardCopyOption.REPLACE_EXISTING);
+			}
+			written = true;
+		} finally {
+			if (!written)
+				Files.deleteIfExists(temporary);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package nl.et4it;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Classifies a batch of sentences in parallel on a ForkJoinPool.
+ *
+ * The batch is split recursively on the number of tokens rather than on the
+ * number of sentences, so a part holding a few long sentences is as much work
+ * as a part holding many short ones and idle workers can steal the remaining
+ * halves of busy ones. Every worker classifies with the ClassificationContext
+ * of its own thread.
+ */
+final class Batch {
+	/**
+	 * Classifies a single sentence of a batch
+	 */
+	interface Classifier<R> {
+		R classify(ClassificationContext context, String[] tokens,
+				String[] tags) throws Exception;
+	}
+
+	// Smallest number of tokens worth splitting off
+	private static final long MIN_GRAIN = 256;
+	// Number of parts to aim for per worker, to even out the load
+	private static final int PARTS_PER_WORKER = 8;
+
+	/**
+	 * Carries a checked exception out of the pool
+	 */
+	private static final class Failure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Failure(Exception cause) {
+			super(cause);
+		}
+	}
+
+	private Batch() {
+	}
+
+	/**
+	 * Classifies all sentences of a batch
+	 *
+	 * @param pool
+	 *            ForkJoinPool The pool to classify on
+	 * @param tokens
+	 *            List[Array[String]] The tokens of every sentence
+	 * @param tags
+	 *            List[Array[String]] The POS-tags of every sentence
+	 * @param classifier
+	 *            Classifier Classifies a single sentence
+	 * @return List The results, in the order of the sentences
+	 */
+	@SuppressWarnings("unchecked")
+	static <R> List<R> classify(ForkJoinPool pool, List<String[]> tokens,
+			List<String[]> tags, Classifier<R> classifier) throws Exception {
+		if (tokens.size() != tags.size())
+			throw new Exception(
+					"The number of token sequences is unequal to the number of tag sequences");
+
+		int size = tokens.size();
+		String[][] tokenArray = tokens.toArray(new String[size][]);
+		String[][] tagArray = tags.toArray(new String[size][]);
+
+		// Work up to each sentence, counting every sentence as one token more
+		// than it has for its fixed cost
+		long[] work = new long[size + 1];
+		for (int i = 0; i < size; i++)
+			work[i + 1] = work[i] + tokenArray[i].length + 1;
+		long grain = Math.max(MIN_GRAIN, work[size]
+				/ (PARTS_PER_WORKER * pool.getParallelism()));
+
+		Object[] results = new Object[size];
+		try {
+			pool.invoke(new Part(tokenArray, tagArray, classifier, results,
+					work, grain, 0, size));
+		} catch (Failure e) {
+			throw (Exception) e.getCause();
+		}
+
+		List<R> ordered = new ArrayList<R>(size);
+		for (Object result : results)
+			ordered.add((R) result);
+		return ordered;
+	}
+
+	/**
+	 * A consecutive range of sentences of the batch
+	 */
+	private static final class Part extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final String[][] tokens;
+		private final String[][] tags;
+		private final Classifier<?> classifier;
+		private final Object[] results;
+		private final long[] work;
+		private final long grain;
+		private final int from;
+		private final int to;
+
+		Part(String[][] tokens, String[][] tags, Classifier<?> classifier,
+				Object[] results, long[] work, long grain, int from, int to) {
+			this.tokens = tokens;
+			this.tags = tags;
+			this.classifier = classifier;
+			this.results = results;
+			this.work = work;
+			this.grain = grain;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1 && work[to] - work[from] > grain) {
+				// Split where half of the work is done
+				int split = split();
+				invokeAll(new Part(tokens, tags, classifier, results, work,
+						grain, from, split), new Part(tokens, tags, classifier,
+						results, work, grain, split, to));
+				return;
+			}
+
+			ClassificationContext context = ClassificationContext.get();
+			for (int i = from; i < to; i++) {
+				try {
+					results[i] = classifier.classify(context, tokens[i],
+							tags[i]);
+				} catch (Exception e) {
+					throw new Failure(e);
+				}
+			}
+		}
+
+		private int split() {
+			long half = (work[from] + work[to]) / 2;
+			int low = from + 1;
+			int high = to - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (work[mid] < half)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+}
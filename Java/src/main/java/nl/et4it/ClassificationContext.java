@@ -0,0 +1,139 @@
+package nl.et4it;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space for classifying sentences one after the other on the same
+ * thread. The encoded sentence, the matches and the emission buffers of a
+ * classification are kept here and reused by the next one, growing with the
+ * longest sentence seen, so classifying a sentence does not allocate them
+ * anew. Every thread gets a context of its own.
+ */
+final class ClassificationContext {
+	private static final ThreadLocal<ClassificationContext> CONTEXTS = new ThreadLocal<ClassificationContext>() {
+		@Override
+		protected ClassificationContext initialValue() {
+			return new ClassificationContext();
+		}
+	};
+
+	// The sentence being classified
+	final EncodedSentence sentence = new EncodedSentence();
+	// All matches of the sentence
+	final Matches matches = new Matches();
+	// The matches of a model combining two models, split per model
+	final Matches[] splitMatches = { new Matches(), new Matches() };
+	// The matches that are not subsumed, per pattern type, by the number of
+	// pattern types
+	private Matches[][] patterns = new Matches[0][];
+	// The emissions, per axis
+	private double[][] emissions = new double[0][0];
+	// The emissions of several axes, position by position
+	private double[] axisEmissions = new double[0];
+	// The sum of the emissions of every axis
+	final double[] axisSums = new double[AxisKernel.LANES];
+	// What the emissions of one position carry over to the next, see
+	// AxisKernel.emit
+	final double[] axisCarry = new double[AxisKernel.LANES];
+	// The weights of the emitting patterns
+	private double[] weights = new double[0];
+	// The stop positions
+	private long[] stops = new long[0];
+
+	/**
+	 * @return ClassificationContext The context of the current thread
+	 */
+	static ClassificationContext get() {
+		return CONTEXTS.get();
+	}
+
+	/**
+	 * Gets lists of matches per pattern type. Models with different numbers
+	 * of pattern types get lists of their own, so classifying with both on
+	 * one thread keeps reusing them.
+	 *
+	 * @param typeCount
+	 *            Int The number of pattern types
+	 * @return Array[Matches] Lists of matches, one per pattern type
+	 */
+	Matches[] patterns(int typeCount) {
+		if (patterns.length <= typeCount)
+			patterns = Arrays.copyOf(patterns, typeCount + 1);
+		if (patterns[typeCount] == null) {
+			patterns[typeCount] = new Matches[typeCount];
+			for (int t = 0; t < typeCount; t++)
+				patterns[typeCount][t] = new Matches();
+		}
+		return patterns[typeCount];
+	}
+
+	/**
+	 * @param axes
+	 *            Int The number of emission axes
+	 * @param length
+	 *            Int The length of the sentence
+	 * @return Array[Array[Double]] Emissions per axis, zero up to the length,
+	 *         there may be more axes than asked for
+	 */
+	double[][] emissions(int axes, int length) {
+		int capacity = emissions.length == 0 ? 0 : emissions[0].length;
+		if (emissions.length < axes || capacity < length)
+			emissions = new double[Math.max(axes, emissions.length)][Math.max(
+					length, 2 * capacity)];
+		else
+			for (int a = 0; a < axes; a++)
+				clear(emissions[a], length);
+		return emissions;
+	}
+
+	/**
+	 * @param lanes
+	 *            Int The number of emission axes
+	 * @param length
+	 *            Int The length of the sentence
+	 * @return Array[Double] Emissions of all axes, position by position, see
+	 *         AxisKernel. Zero up to the number of axes times the length.
+	 */
+	double[] axisEmissions(int lanes, int length) {
+		if (axisEmissions.length < lanes * length)
+			axisEmissions = new double[Math.max(lanes * length,
+					2 * axisEmissions.length)];
+		else
+			clear(axisEmissions, lanes * length);
+		return axisEmissions;
+	}
+
+	/**
+	 * @param length
+	 *            Int The length of the sentence
+	 * @return Array[Double] Weights, zero up to the length
+	 */
+	double[] weights(int length) {
+		if (weights.length < length)
+			weights = new double[Math.max(length, 2 * weights.length)];
+		else
+			clear(weights, length);
+		return weights;
+	}
+
+	/**
+	 * @param length
+	 *            Int The length of the sentence
+	 * @return Array[Long] An empty set of stop positions
+	 */
+	long[] stops(int length) {
+		int words = (length + 63) >>> 6;
+		if (stops.length < words)
+			stops = new long[Math.max(words, 2 * stops.length)];
+		else
+			// Clear all words, the bit scans look past the sentence end
+			for (int i = 0; i < stops.length; i++)
+				stops[i] = 0L;
+		return stops;
+	}
+
+	private static void clear(double[] values, int length) {
+		for (int i = 0; i < length; i++)
+			values[i] = 0.0;
+	}
+}
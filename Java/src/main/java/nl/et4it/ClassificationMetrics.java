@@ -0,0 +1,78 @@
+package nl.et4it;
+
+/**
+ * Receives measurements of the sentences RBEMPolarity and RBEMEmotion
+ * classify, set with setMetrics. Every classified sentence reports how long
+ * each phase of classifying it took, how many patterns of every type were
+ * left to apply rules for once subsumed patterns were removed, and its
+ * length. Failed classifications report their exception. Sentences answered
+ * from the result cache are not classified and report nothing.
+ *
+ * Implementations are called from all classifying threads at once and should
+ * not lock. NONE ignores everything and is the default; classifiers do not
+ * even read the clock when it is set. InMemoryMetrics adds everything up.
+ */
+public interface ClassificationMetrics {
+	// Identifiers of the phases of classifying a sentence, their position in
+	// PHASES
+	int MAKE_VECTOR = 0;
+	int MATCHING = 1;
+	int SUBSUMPTION = 2;
+	int RULES = 3;
+	// The names of the phases
+	String[] PHASES = { "makeVector", "matching", "subsumption", "rules" };
+
+	/**
+	 * Measures nothing
+	 */
+	ClassificationMetrics NONE = new ClassificationMetrics() {
+		public void recordPhase(int phase, long nanos) {
+		}
+
+		public void recordMatches(String patternType, int count) {
+		}
+
+		public void recordSentence(int length) {
+		}
+
+		public void recordException(Exception e) {
+		}
+	};
+
+	/**
+	 * Records how long a phase of classifying a sentence took
+	 *
+	 * @param phase
+	 *            Int The phase, like MATCHING
+	 * @param nanos
+	 *            Long The nanoseconds it took
+	 */
+	void recordPhase(int phase, long nanos);
+
+	/**
+	 * Records the number of patterns of a type found in a sentence that were
+	 * not subsumed, called for every pattern type of the model
+	 *
+	 * @param patternType
+	 *            String The pattern type, like amplifiers
+	 * @param count
+	 *            Int The number of patterns
+	 */
+	void recordMatches(String patternType, int count);
+
+	/**
+	 * Records a sentence that was classified
+	 *
+	 * @param length
+	 *            Int The number of tokens
+	 */
+	void recordSentence(int length);
+
+	/**
+	 * Records a sentence that could not be classified
+	 *
+	 * @param e
+	 *            Exception The exception classify throws
+	 */
+	void recordException(Exception e);
+}
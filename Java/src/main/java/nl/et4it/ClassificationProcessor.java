@@ -0,0 +1,257 @@
+package nl.et4it;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * A Flow.Processor that classifies tagged sentences, given as pairs of their
+ * tokens and POS-tags, and publishes their results in the order the
+ * sentences came in. Processors are created by RBEMPolarity.processor and
+ * RBEMEmotion.processor and have a single subscriber.
+ *
+ * Sentences are collected into chunks that are classified in parallel on an
+ * executor. A chunk is handed to the executor once it is full, or right away
+ * when nothing is being classified, so a slow stream is not held up waiting
+ * for a chunk to fill. No more sentences are requested from upstream than fit
+ * in a window, counting every sentence that is waiting, being classified or
+ * classified but not yet requested downstream, so a slow subscriber slows
+ * down the publisher instead of filling up memory.
+ *
+ * All state is kept by a single drain loop that any of the threads involved
+ * may run, but never two at once.
+ */
+public class ClassificationProcessor<R> implements
+		Flow.Processor<Pair<String[], String[]>, R> {
+	private final Batch.Classifier<R> classifier;
+	private final Executor executor;
+	// Maximum number of sentences held
+	private final long window;
+	private final int chunkSize;
+
+	// Sentences received but not yet chunked
+	private final ConcurrentLinkedQueue<Pair<String[], String[]>> input = new ConcurrentLinkedQueue<Pair<String[], String[]>>();
+	// Sentences requested downstream but not yet published
+	private final AtomicLong demand = new AtomicLong();
+	// Whether the drain loop is running and whether it missed any calls
+	private final AtomicInteger work = new AtomicInteger();
+	private volatile Flow.Subscription upstream;
+	private volatile Flow.Subscriber<? super R> downstream;
+	private volatile boolean upstreamDone = false;
+	private volatile Throwable upstreamError = null;
+	private volatile boolean cancelled = false;
+	// Misuse by the subscriber, reported to it by the drain loop
+	private volatile Throwable failure = null;
+
+	// Only touched by the drain loop
+	private List<Pair<String[], String[]>> chunk;
+	private final ArrayDeque<CompletableFuture<List<R>>> inFlight = new ArrayDeque<CompletableFuture<List<R>>>();
+	// Next result of the oldest chunk to publish
+	private int published = 0;
+	// Sentences requested upstream but not yet received
+	private long requested = 0;
+	// Sentences received but not yet published
+	private long held = 0;
+	private boolean done = false;
+
+	ClassificationProcessor(Batch.Classifier<R> classifier, Executor executor,
+			int window, int chunkSize) {
+		this.classifier = classifier;
+		this.executor = executor;
+		this.window = Math.max(window, chunkSize);
+		this.chunkSize = chunkSize;
+		this.chunk = new ArrayList<Pair<String[], String[]>>(chunkSize);
+	}
+
+	public void subscribe(Flow.Subscriber<? super R> subscriber) {
+		if (downstream != null) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				public void request(long n) {
+				}
+
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException(
+					"A ClassificationProcessor has a single subscriber"));
+			return;
+		}
+		downstream = subscriber;
+		subscriber.onSubscribe(new Flow.Subscription() {
+			public void request(long n) {
+				if (n <= 0) {
+					failure = new IllegalArgumentException(
+							"Requested a non-positive number of results");
+					drain();
+					return;
+				}
+				// Add to the demand, saturating at Long.MAX_VALUE
+				long current;
+				do {
+					current = demand.get();
+				} while (!demand.compareAndSet(current,
+						current + n < 0 ? Long.MAX_VALUE : current + n));
+				drain();
+			}
+
+			public void cancel() {
+				cancelled = true;
+				if (upstream != null)
+					upstream.cancel();
+			}
+		});
+		drain();
+	}
+
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (upstream != null) {
+			subscription.cancel();
+			return;
+		}
+		upstream = subscription;
+		drain();
+	}
+
+	public void onNext(Pair<String[], String[]> sentence) {
+		input.offer(sentence);
+		drain();
+	}
+
+	public void onError(Throwable error) {
+		upstreamError = error;
+		upstreamDone = true;
+		drain();
+	}
+
+	public void onComplete() {
+		upstreamDone = true;
+		drain();
+	}
+
+	private void drain() {
+		if (work.getAndIncrement() != 0)
+			return;
+		int missed = 1;
+		do {
+			if (done)
+				input.clear();
+			else if (downstream != null)
+				step();
+			missed = work.addAndGet(-missed);
+		} while (missed != 0);
+	}
+
+	private void step() {
+		if (failure != null) {
+			fail(failure);
+			return;
+		}
+		if (cancelled) {
+			input.clear();
+			inFlight.clear();
+			done = true;
+			return;
+		}
+
+		// Chunk the sentences that came in
+		Pair<String[], String[]> sentence;
+		while ((sentence = input.poll()) != null) {
+			requested--;
+			held++;
+			chunk.add(sentence);
+			if (chunk.size() == chunkSize)
+				submitChunk();
+		}
+		if (!chunk.isEmpty() && (inFlight.isEmpty() || upstreamDone))
+			submitChunk();
+
+		// Publish the classified sentences, in order
+		while (demand.get() > 0 && !inFlight.isEmpty()
+				&& inFlight.peek().isDone()) {
+			List<R> results;
+			try {
+				results = inFlight.peek().join();
+			} catch (CompletionException e) {
+				fail(e.getCause());
+				return;
+			}
+			downstream.onNext(results.get(published++));
+			demand.decrementAndGet();
+			held--;
+			if (published == results.size()) {
+				inFlight.poll();
+				published = 0;
+			}
+		}
+
+		// A partial chunk held back while another chunk was classified goes
+		// as soon as that chunk is published, not with the next sentence
+		if (!chunk.isEmpty() && (inFlight.isEmpty() || upstreamDone))
+			submitChunk();
+
+		// Everything is published
+		if (upstreamDone && input.isEmpty() && chunk.isEmpty()
+				&& inFlight.isEmpty()) {
+			done = true;
+			if (upstreamError != null)
+				downstream.onError(upstreamError);
+			else
+				downstream.onComplete();
+			return;
+		}
+
+		// Request more sentences if a chunk fits in the window
+		long room = window - held - requested;
+		if (!upstreamDone && upstream != null && room >= chunkSize) {
+			requested += room;
+			upstream.request(room);
+		}
+	}
+
+	private void submitChunk() {
+		final List<Pair<String[], String[]>> sentences = chunk;
+		chunk = new ArrayList<Pair<String[], String[]>>(chunkSize);
+		CompletableFuture<List<R>> results = CompletableFuture.supplyAsync(
+				new Supplier<List<R>>() {
+					public List<R> get() {
+						ClassificationContext context = ClassificationContext
+								.get();
+						List<R> results = new ArrayList<R>(sentences.size());
+						try {
+							for (Pair<String[], String[]> sentence : sentences)
+								results.add(classifier.classify(context,
+										sentence.getLeft(), sentence.getRight()));
+						} catch (Exception e) {
+							throw new CompletionException(e);
+						}
+						return results;
+					}
+				}, executor);
+		inFlight.add(results);
+		// The chunk is done before this runs, so the drain loop sees it done
+		results.whenComplete(new BiConsumer<List<R>, Throwable>() {
+			public void accept(List<R> results, Throwable error) {
+				drain();
+			}
+		});
+	}
+
+	private void fail(Throwable error) {
+		done = true;
+		cancelled = true;
+		if (upstream != null)
+			upstream.cancel();
+		downstream.onError(error);
+	}
+}
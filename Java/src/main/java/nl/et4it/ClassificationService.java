@@ -0,0 +1,225 @@
+package nl.et4it;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Runs classification requests that spend most of their time blocking, like
+ * reading from an upstream queue.
+ *
+ * Every request runs on a thread of its own, a virtual thread when the Java
+ * runtime has them (Java 21 and up). Before Java 21 requests run on a pool of
+ * at most MAX_REQUEST_THREADS platform threads, and requests beyond that wait
+ * in a queue until a thread is free, so a burst of blocked requests does not
+ * start a thread for every one of them. Callers can also hand in an executor
+ * of their own. getMode tells which of these the service runs on. Requests
+ * classify through classify and classifyEmotion, which hand the
+ * actual work to a pool with one worker per core and block until it is done.
+ * However many requests are in flight, no more sentences are classified at
+ * the same time than there are cores, and the workers keep reusing their
+ * scratch space. All requests classify against the models the classifiers
+ * hold at that moment, which are shared and never modified.
+ */
+public class ClassificationService {
+	/**
+	 * What the requests run on
+	 */
+	public enum Mode {
+		// A virtual thread per request, from Java 21 on
+		VIRTUAL_THREADS,
+		// A pool of at most MAX_REQUEST_THREADS platform threads
+		BOUNDED_POOL,
+		// The executor passed to the constructor
+		SUPPLIED_EXECUTOR
+	}
+
+	// The maximum number of platform threads requests run on without virtual
+	// threads
+	public static final int MAX_REQUEST_THREADS = 256;
+
+	private final RBEMPolarity polarity;
+	private final RBEMEmotion emotion;
+	// Runs the requests
+	private final ExecutorService requests;
+	// Runs the classification, one worker per core
+	private final ForkJoinPool workers;
+	private final Mode mode;
+
+	/**
+	 * Creates a service classifying on as many workers as there are cores
+	 *
+	 * @param polarity
+	 *            RBEMPolarity The polarity classifier, may be null if no
+	 *            polarity is classified
+	 * @param emotion
+	 *            RBEMEmotion The emotion classifier, may be null if no emotion
+	 *            is classified
+	 */
+	public ClassificationService(RBEMPolarity polarity, RBEMEmotion emotion) {
+		this(polarity, emotion, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a service
+	 *
+	 * @param polarity
+	 *            RBEMPolarity The polarity classifier, may be null if no
+	 *            polarity is classified
+	 * @param emotion
+	 *            RBEMEmotion The emotion classifier, may be null if no emotion
+	 *            is classified
+	 * @param workers
+	 *            Int The maximum number of sentences classified at the same
+	 *            time
+	 */
+	public ClassificationService(RBEMPolarity polarity, RBEMEmotion emotion,
+			int workers) {
+		this.polarity = polarity;
+		this.emotion = emotion;
+		this.workers = new ForkJoinPool(workers);
+
+		ExecutorService virtualThreads = null;
+		try {
+			// Only present from Java 21 on
+			Method factory = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			virtualThreads = (ExecutorService) factory.invoke(null);
+		} catch (Exception e) {
+			virtualThreads = null;
+		}
+		if (virtualThreads != null) {
+			this.requests = virtualThreads;
+			this.mode = Mode.VIRTUAL_THREADS;
+		} else {
+			// Threads are started up to the maximum, after which requests
+			// queue, and end when idle for a minute
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(
+					MAX_REQUEST_THREADS, MAX_REQUEST_THREADS, 60,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+			pool.allowCoreThreadTimeOut(true);
+			this.requests = pool;
+			this.mode = Mode.BOUNDED_POOL;
+		}
+	}
+
+	/**
+	 * Creates a service running its requests on an executor of the caller
+	 *
+	 * @param polarity
+	 *            RBEMPolarity The polarity classifier, may be null if no
+	 *            polarity is classified
+	 * @param emotion
+	 *            RBEMEmotion The emotion classifier, may be null if no emotion
+	 *            is classified
+	 * @param workers
+	 *            Int The maximum number of sentences classified at the same
+	 *            time
+	 * @param requests
+	 *            ExecutorService Runs the requests, it is shut down with the
+	 *            service
+	 */
+	public ClassificationService(RBEMPolarity polarity, RBEMEmotion emotion,
+			int workers, ExecutorService requests) {
+		this.polarity = polarity;
+		this.emotion = emotion;
+		this.workers = new ForkJoinPool(workers);
+		this.requests = requests;
+		this.mode = Mode.SUPPLIED_EXECUTOR;
+	}
+
+	/**
+	 * @return Mode What the requests run on
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return Boolean Whether requests run on virtual threads
+	 */
+	public boolean usesVirtualThreads() {
+		return mode == Mode.VIRTUAL_THREADS;
+	}
+
+	/**
+	 * Runs a request on a thread of its own
+	 *
+	 * @param request
+	 *            Callable The request, it may block and may call classify and
+	 *            classifyEmotion
+	 * @return Future The result of the request
+	 */
+	public <T> Future<T> submit(Callable<T> request) {
+		return requests.submit(request);
+	}
+
+	/**
+	 * Classifies a sentence on polarity, blocking until one of the workers
+	 * has done so
+	 *
+	 * @param tokens
+	 *            Array[String] The tokens of the sentence
+	 * @param tags
+	 *            Array[String] The POS-tags of the sentence
+	 * @return Pair[String, Double] The label and score of the sentence
+	 */
+	public Pair<String, Double> classify(final String[] tokens,
+			final String[] tags) throws Exception {
+		return await(workers.submit(new Callable<Pair<String, Double>>() {
+			public Pair<String, Double> call() throws Exception {
+				return polarity.classify(tokens, tags);
+			}
+		}));
+	}
+
+	/**
+	 * Classifies a sentence on emotion, blocking until one of the workers has
+	 * done so
+	 *
+	 * @param tokens
+	 *            Array[String] The tokens of the sentence
+	 * @param tags
+	 *            Array[String] The POS-tags of the sentence
+	 * @param normalize
+	 *            Boolean Whether to normalize the scores
+	 * @return HashMap[String, Double] The score of every emotion axis
+	 */
+	public HashMap<String, Double> classifyEmotion(final String[] tokens,
+			final String[] tags, final Boolean normalize) throws Exception {
+		return await(workers.submit(new Callable<HashMap<String, Double>>() {
+			public HashMap<String, Double> call() throws Exception {
+				return emotion.classify(tokens, tags, normalize);
+			}
+		}));
+	}
+
+	private static <T> T await(Future<T> result) throws Exception {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Stops accepting requests and waits for the running ones to finish
+	 */
+	public void shutdown() throws InterruptedException {
+		requests.shutdown();
+		requests.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		workers.shutdown();
+	}
+}
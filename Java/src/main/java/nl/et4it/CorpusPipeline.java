@@ -0,0 +1,134 @@
+package nl.et4it;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Classifies a corpus of any size while keeping memory use constant.
+ *
+ * Sentences are read in chunks and every chunk is classified as a task on an
+ * executor. At most a window of sentences is read ahead of the oldest chunk
+ * that is still being classified: once the window is full, the reader waits
+ * for that chunk and writes its results before reading on. Results are thus
+ * written in the order of the corpus, and no more than the window of
+ * sentences and results is held at any time.
+ */
+final class CorpusPipeline {
+	/**
+	 * Writes the result of a single sentence as a record
+	 */
+	interface Format<R> {
+		void write(R result, Writer out) throws IOException;
+	}
+
+	// Sentences classified per task
+	static final int CHUNK_SIZE = 64;
+	// Characters buffered per write to the output
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private CorpusPipeline() {
+	}
+
+	/**
+	 * @param out
+	 *            OutputStream The stream to write records to
+	 * @return Writer A buffered writer of UTF-8 text to the stream
+	 */
+	static Writer writer(OutputStream out) {
+		return new BufferedWriter(Channels.newWriter(Channels.newChannel(out),
+				Charset.forName("UTF-8").newEncoder(), BUFFER_SIZE),
+				BUFFER_SIZE);
+	}
+
+	/**
+	 * Classifies all sentences of a corpus
+	 *
+	 * @param executor
+	 *            ExecutorService The executor to classify on
+	 * @param window
+	 *            Int The maximum number of sentences in flight
+	 * @param reader
+	 *            TaggedCorpusReader The corpus
+	 * @param out
+	 *            Writer Receives a record per sentence, in corpus order
+	 * @param classifier
+	 *            Batch.Classifier Classifies a single sentence
+	 * @param format
+	 *            Format Writes the record of a single sentence
+	 * @return Long The number of sentences classified
+	 */
+	static <R> long run(ExecutorService executor, int window,
+			TaggedCorpusReader reader, Writer out,
+			final Batch.Classifier<R> classifier, Format<R> format)
+			throws Exception {
+		int maxChunks = Math.max(1, window / CHUNK_SIZE);
+		ArrayDeque<Future<List<R>>> inFlight = new ArrayDeque<Future<List<R>>>();
+		long count = 0;
+		try {
+			while (true) {
+				// Read the next chunk
+				final List<Pair<String[], String[]>> chunk = new ArrayList<Pair<String[], String[]>>(
+						CHUNK_SIZE);
+				Pair<String[], String[]> sentence;
+				while (chunk.size() < CHUNK_SIZE
+						&& (sentence = reader.next()) != null)
+					chunk.add(sentence);
+				if (chunk.isEmpty())
+					break;
+				count += chunk.size();
+
+				// Make room in the window
+				if (inFlight.size() == maxChunks)
+					write(inFlight.poll(), out, format);
+
+				inFlight.add(executor.submit(new Callable<List<R>>() {
+					public List<R> call() throws Exception {
+						ClassificationContext context = ClassificationContext
+								.get();
+						List<R> results = new ArrayList<R>(chunk.size());
+						for (Pair<String[], String[]> sentence : chunk)
+							results.add(classifier.classify(context,
+									sentence.getLeft(), sentence.getRight()));
+						return results;
+					}
+				}));
+			}
+
+			// Write what is left
+			while (!inFlight.isEmpty())
+				write(inFlight.poll(), out, format);
+			out.flush();
+		} finally {
+			for (Future<List<R>> chunk : inFlight)
+				chunk.cancel(true);
+		}
+		return count;
+	}
+
+	private static <R> void write(Future<List<R>> chunk, Writer out,
+			Format<R> format) throws Exception {
+		List<R> results;
+		try {
+			results = chunk.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+		for (R result : results)
+			format.write(result, out);
+	}
+}
@@ -0,0 +1,268 @@
+package nl.et4it;
+
+/**
+ * The primitive operations of the rule application phase of RBEMPolarity and
+ * RBEMEmotion.
+ *
+ * Emissions are kept in double[] arrays and stop positions in a bitset of
+ * long words. Positive and negative emissions of all patterns are added in
+ * one left-to-right and one right-to-left pass over the sentence. For the
+ * other rules, instead of walking away from the center of a pattern one
+ * position at a time while checking for stops, the range of positions a
+ * pattern reaches is found by scanning the bitset for the nearest stop on
+ * either side, after which the emissions in that range are updated in one
+ * loop. The factors 1 + e^-j and 1 - e^-j for a distance j to the center are
+ * looked up in tables that grow with the longest sentence seen.
+ */
+final class EmissionKernel {
+	/**
+	 * Lookup tables of the factors for all distances up to a length
+	 */
+	private static final class Tables {
+		final double[] decay;
+		final double[] amplify;
+		final double[] attenuate;
+
+		Tables(int length) {
+			decay = new double[length];
+			amplify = new double[length];
+			attenuate = new double[length];
+			for (int j = 0; j < length; j++) {
+				decay[j] = Math.exp(-j);
+				amplify[j] = 1 + decay[j];
+				attenuate[j] = 1 - decay[j];
+			}
+		}
+	}
+
+	// The decay from one position to the next
+	static final double DECAY = Math.exp(-1);
+
+	// Replaced by a larger set of tables when a longer sentence comes along
+	private static volatile Tables tables = new Tables(64);
+
+	private EmissionKernel() {
+	}
+
+	private static Tables tables(int length) {
+		Tables current = tables;
+		if (current.decay.length < length) {
+			current = new Tables(Math.max(length, 2 * current.decay.length));
+			tables = current;
+		}
+		return current;
+	}
+
+	/**
+	 * @param length
+	 *            Int The longest distance to look up
+	 * @return Array[Double] The factors 1 + e^-j for all distances j
+	 */
+	static double[] amplifyFactors(int length) {
+		return tables(length).amplify;
+	}
+
+	/**
+	 * @param length
+	 *            Int The longest distance to look up
+	 * @return Array[Double] The factors 1 - e^-j for all distances j
+	 */
+	static double[] attenuateFactors(int length) {
+		return tables(length).attenuate;
+	}
+
+	/**
+	 * Adds a stop at a position
+	 */
+	static void addStop(long[] stops, int position) {
+		stops[position >>> 6] |= 1L << position;
+	}
+
+	/**
+	 * Checks whether there is a stop at a position
+	 */
+	static boolean isStop(long[] stops, int position) {
+		return (stops[position >>> 6] & (1L << position)) != 0;
+	}
+
+	/**
+	 * Removes the stop at a position
+	 */
+	static void removeStop(long[] stops, int position) {
+		stops[position >>> 6] &= ~(1L << position);
+	}
+
+	/**
+	 * Finds the nearest stop at or before a position
+	 *
+	 * @param stops
+	 *            Array[Long] The stop positions
+	 * @param position
+	 *            Int The position to start looking from
+	 * @return Int The position of the stop, -1 if there is none
+	 */
+	static int previousStop(long[] stops, int position) {
+		if (position < 0)
+			return -1;
+		int word = position >>> 6;
+		long bits = stops[word] & (-1L >>> (63 - (position & 63)));
+		while (true) {
+			if (bits != 0)
+				return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+			if (word == 0)
+				return -1;
+			bits = stops[--word];
+		}
+	}
+
+	/**
+	 * Finds the nearest stop at or after a position
+	 *
+	 * @param stops
+	 *            Array[Long] The stop positions
+	 * @param position
+	 *            Int The position to start looking from
+	 * @return Int The position of the stop, -1 if there is none
+	 */
+	static int nextStop(long[] stops, int position) {
+		int word = position >>> 6;
+		if (word >= stops.length)
+			return -1;
+		long bits = stops[word] & (-1L << position);
+		while (true) {
+			if (bits != 0)
+				return (word << 6) + Long.numberOfTrailingZeros(bits);
+			if (++word == stops.length)
+				return -1;
+			bits = stops[word];
+		}
+	}
+
+	/**
+	 * @param start
+	 *            Int The start position of a pattern
+	 * @param end
+	 *            Int The end position of a pattern
+	 * @return Int The position emissions of the pattern are centered on
+	 */
+	static int center(int start, int end) {
+		return (start + end) >>> 1;
+	}
+
+	/**
+	 * Gets the leftmost position a pattern reaches. Going left, the position
+	 * of a stop is still reached but the positions before it are not. A stop
+	 * at the center blocks the left side completely, in which case the center
+	 * itself is returned.
+	 *
+	 * @param stops
+	 *            Array[Long] The stop positions
+	 * @param center
+	 *            Int The center of the pattern
+	 * @param range
+	 *            Int The maximum distance to the center
+	 * @return Int The leftmost position
+	 */
+	static int left(long[] stops, int center, int range) {
+		int stop = previousStop(stops, center);
+		return Math.max(stop < 0 ? 0 : stop, center - range);
+	}
+
+	/**
+	 * Gets the rightmost position a pattern reaches. Going right, the
+	 * position of a stop is still reached but the positions after it are not.
+	 *
+	 * @param stops
+	 *            Array[Long] The stop positions
+	 * @param length
+	 *            Int The length of the sentence
+	 * @param center
+	 *            Int The center of the pattern
+	 * @param range
+	 *            Int The maximum distance to the center
+	 * @return Int The rightmost position
+	 */
+	static int right(long[] stops, int length, int center, int range) {
+		int stop = nextStop(stops, center);
+		return Math.min(stop < 0 ? length - 1 : stop, center + range);
+	}
+
+	/**
+	 * Adds the emissions of all positive and negative patterns in two passes
+	 * over the sentence
+	 *
+	 * A pattern centered at c emits w * e^-|p - c| to every position p it
+	 * reaches, so the emissions reaching p from the left satisfy r[p] = w[p]
+	 * + e^-1 * r[p - 1] and those reaching p from the right satisfy l[p] =
+	 * e^-1 * (w[p + 1] + l[p + 1]), where w holds the summed weights of the
+	 * patterns centered at each position. A stop at position s still receives
+	 * emissions but passes none on, which breaks the recurrence from s to s +
+	 * 1 going right and from s to s - 1 going left.
+	 *
+	 * @param emissions
+	 *            Array[Double] The emissions to add to
+	 * @param weights
+	 *            Array[Double] Per position, the number of positive patterns
+	 *            centered there minus the number of negative ones
+	 * @param stops
+	 *            Array[Long] The stop positions
+	 * @param length
+	 *            Int The length of the sentence
+	 */
+	static void emit(double[] emissions, double[] weights, long[] stops,
+			int length) {
+		// Left to right, carrying e^-1 * r[p - 1]
+		double carry = 0.0;
+		for (int p = 0; p < length; p++) {
+			double right = weights[p] + carry;
+			emissions[p] += right;
+			carry = isStop(stops, p) ? 0.0 : DECAY * right;
+		}
+
+		// Right to left, carrying l[p]
+		carry = 0.0;
+		for (int p = length - 1; p >= 0; p--) {
+			emissions[p] += carry;
+			carry = isStop(stops, p) ? 0.0 : DECAY * (weights[p] + carry);
+		}
+	}
+
+	/**
+	 * Cancels all emissions from one position up to and including another
+	 */
+	static void cancel(double[] emissions, int from, int to) {
+		for (int p = from; p <= to; p++)
+			emissions[p] = 0.0;
+	}
+
+	/**
+	 * Multiplies emissions by 1 + e^-j for their distance j to a center
+	 */
+	static void amplify(double[] emissions, int from, int to, int center) {
+		scale(emissions, from, to, center, tables(emissions.length).amplify);
+	}
+
+	/**
+	 * Multiplies emissions by 1 - e^-j for their distance j to a center
+	 */
+	static void attenuate(double[] emissions, int from, int to, int center) {
+		scale(emissions, from, to, center, tables(emissions.length).attenuate);
+	}
+
+	/**
+	 * Flips the sign of all emissions from one position up to and including
+	 * another
+	 */
+	static void negate(double[] emissions, int from, int to) {
+		for (int p = from; p <= to; p++)
+			emissions[p] *= -1;
+	}
+
+	private static void scale(double[] emissions, int from, int to,
+			int center, double[] factors) {
+		for (int p = from; p < center; p++)
+			emissions[p] *= factors[center - p];
+		for (int p = Math.max(from, center); p <= to; p++)
+			emissions[p] *= factors[p - center];
+	}
+}
@@ -0,0 +1,42 @@
+package nl.et4it;
+
+/**
+ * A sentence as RBEM works with it: the lowercased tokens and the POS-tags,
+ * both encoded against the symbol tables of a model. The arrays are reused
+ * for the next sentence and may be longer than the sentence.
+ */
+final class EncodedSentence {
+	int[] tokens = new int[32];
+	int[] tags = new int[32];
+	int length = 0;
+
+	/**
+	 * Encodes a sentence, replacing the previous one
+	 *
+	 * @param tokenSymbols
+	 *            SymbolTable The token symbols of the model
+	 * @param tagSymbols
+	 *            SymbolTable The POS-tag symbols of the model
+	 * @param words
+	 *            Array[String] The words
+	 * @param posTags
+	 *            Array[String] The POS-tags
+	 */
+	void encode(SymbolTable tokenSymbols, SymbolTable tagSymbols,
+			String[] words, String[] posTags) throws Exception {
+		// See if there is an equal number of words and tags
+		if (words.length != posTags.length)
+			throw new Exception(
+					"The number of words is unequal to the number of POS-tags");
+
+		length = words.length;
+		if (tokens.length < length) {
+			tokens = new int[Math.max(length, 2 * tokens.length)];
+			tags = new int[tokens.length];
+		}
+		for (int i = 0; i < length; i++) {
+			tokens[i] = tokenSymbols.lookupLowerCase(words[i]);
+			tags[i] = tagSymbols.lookup(posTags[i]);
+		}
+	}
+}
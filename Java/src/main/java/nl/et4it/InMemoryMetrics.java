@@ -0,0 +1,198 @@
+package nl.et4it;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Adds up the measurements of classified sentences in memory, see
+ * ClassificationMetrics. Everything is counted in striped adders, so
+ * classifying threads do not wait for one another. Reading while sentences
+ * are being classified gives sums that may be a few sentences apart.
+ */
+public class InMemoryMetrics implements ClassificationMetrics {
+	// Sentence lengths are counted per power of two, bucket b holds the
+	// lengths from 2^(b-1) up to 2^b
+	static final int BUCKETS = 32;
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final LongAdder[] phaseCounts = adders(PHASES.length);
+	private final LongAdder[] phaseNanos = adders(PHASES.length);
+	private final LongAccumulator[] phaseMaxNanos = new LongAccumulator[PHASES.length];
+	private final ConcurrentHashMap<String, LongAdder> matches = new ConcurrentHashMap<String, LongAdder>();
+	private final LongAdder sentences = new LongAdder();
+	private final LongAdder tokens = new LongAdder();
+	private final LongAccumulator maxLength = new LongAccumulator(MAX, 0);
+	private final LongAdder[] lengths = adders(BUCKETS);
+	private final ConcurrentHashMap<String, LongAdder> exceptions = new ConcurrentHashMap<String, LongAdder>();
+
+	public InMemoryMetrics() {
+		for (int p = 0; p < PHASES.length; p++)
+			phaseMaxNanos[p] = new LongAccumulator(MAX, 0);
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for (int i = 0; i < count; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	private static LongAdder adder(ConcurrentHashMap<String, LongAdder> adders,
+			String key) {
+		LongAdder adder = adders.get(key);
+		if (adder == null) {
+			LongAdder added = new LongAdder();
+			adder = adders.putIfAbsent(key, added);
+			if (adder == null)
+				adder = added;
+		}
+		return adder;
+	}
+
+	public void recordPhase(int phase, long nanos) {
+		phaseCounts[phase].increment();
+		phaseNanos[phase].add(nanos);
+		phaseMaxNanos[phase].accumulate(nanos);
+	}
+
+	public void recordMatches(String patternType, int count) {
+		adder(matches, patternType).add(count);
+	}
+
+	public void recordSentence(int length) {
+		sentences.increment();
+		tokens.add(length);
+		maxLength.accumulate(length);
+		lengths[BUCKETS - Integer.numberOfLeadingZeros(length)].increment();
+	}
+
+	public void recordException(Exception e) {
+		adder(exceptions, e.getClass().getName()).increment();
+	}
+
+	/**
+	 * @param phase
+	 *            Int The phase, like ClassificationMetrics.MATCHING
+	 * @return Long The number of times the phase was recorded
+	 */
+	public long getPhaseCount(int phase) {
+		return phaseCounts[phase].sum();
+	}
+
+	/**
+	 * @param phase
+	 *            Int The phase, like ClassificationMetrics.MATCHING
+	 * @return Long The nanoseconds spent in the phase, in total
+	 */
+	public long getPhaseNanos(int phase) {
+		return phaseNanos[phase].sum();
+	}
+
+	/**
+	 * @param phase
+	 *            Int The phase, like ClassificationMetrics.MATCHING
+	 * @return Long The most nanoseconds the phase took for a single sentence
+	 */
+	public long getMaxPhaseNanos(int phase) {
+		return phaseMaxNanos[phase].get();
+	}
+
+	/**
+	 * @return Map[String, Long] The number of patterns that were not subsumed,
+	 *         by pattern type
+	 */
+	public Map<String, Long> getMatchCounts() {
+		return sums(matches);
+	}
+
+	/**
+	 * @return Long The number of sentences classified
+	 */
+	public long getSentences() {
+		return sentences.sum();
+	}
+
+	/**
+	 * @return Long The number of tokens of all sentences classified
+	 */
+	public long getTokens() {
+		return tokens.sum();
+	}
+
+	/**
+	 * @return Long The length of the longest sentence classified
+	 */
+	public long getMaxSentenceLength() {
+		return maxLength.get();
+	}
+
+	/**
+	 * Gets the number of sentences classified per length, in powers of two
+	 *
+	 * @return Array[Long] The number of sentences of length 0 at index 0, and
+	 *         of lengths from 2^(b-1) up to 2^b at every other index b
+	 */
+	public long[] getSentenceLengths() {
+		long[] counts = new long[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++)
+			counts[b] = lengths[b].sum();
+		return counts;
+	}
+
+	/**
+	 * @return Long The number of sentences that could not be classified
+	 */
+	public long getExceptions() {
+		long total = 0;
+		for (LongAdder adder : exceptions.values())
+			total += adder.sum();
+		return total;
+	}
+
+	/**
+	 * @return Map[String, Long] The number of sentences that could not be
+	 *         classified, by the class name of the exception
+	 */
+	public Map<String, Long> getExceptionCounts() {
+		return sums(exceptions);
+	}
+
+	private static Map<String, Long> sums(
+			ConcurrentHashMap<String, LongAdder> adders) {
+		Map<String, Long> sums = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : adders.entrySet())
+			sums.put(entry.getKey(), entry.getValue().sum());
+		return sums;
+	}
+
+	/**
+	 * Summarizes the measurements, one per line
+	 */
+	@Override
+	public String toString() {
+		StringBuilder out = new StringBuilder();
+		out.append("sentences ").append(getSentences()).append(", tokens ")
+				.append(getTokens()).append(", longest ")
+				.append(getMaxSentenceLength()).append(", exceptions ")
+				.append(getExceptions()).append('\n');
+		for (int p = 0; p < PHASES.length; p++) {
+			long count = getPhaseCount(p);
+			out.append(PHASES[p]).append(": total ")
+					.append(getPhaseNanos(p) / 1000).append(" us, mean ")
+					.append(count == 0 ? 0 : getPhaseNanos(p) / count)
+					.append(" ns, max ").append(getMaxPhaseNanos(p))
+					.append(" ns\n");
+		}
+		out.append("matches ").append(getMatchCounts()).append('\n');
+		out.append("exceptions ").append(getExceptionCounts());
+		return out.toString();
+	}
+}
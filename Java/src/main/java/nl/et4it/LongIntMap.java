@@ -0,0 +1,148 @@
+package nl.et4it;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from long keys to non-negative int values, used to
+ * index the compiled model on pairs of symbol identifiers without boxing.
+ */
+final class LongIntMap {
+	// Value returned for keys that are not present
+	static final int ABSENT = -1;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+
+	LongIntMap() {
+		this(4);
+	}
+
+	/**
+	 * @param expected
+	 *            Int The number of entries the map should hold without growing
+	 */
+	LongIntMap(int expected) {
+		int capacity = 4;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, ABSENT);
+	}
+
+	private LongIntMap(long[] keys, int[] values, int size) {
+		this.keys = keys;
+		this.values = values;
+		this.size = size;
+	}
+
+	/**
+	 * Estimates the memory taken by the map
+	 *
+	 * @return Long The estimated number of bytes
+	 */
+	long bytes() {
+		return 48 + 12L * keys.length;
+	}
+
+	/**
+	 * Writes the map in the binary model format
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(keys.length);
+		for (long key : keys)
+			out.writeLong(key);
+		RBEMModelFormat.writeInts(out, values, values.length);
+	}
+
+	/**
+	 * Reads a map written by write
+	 */
+	static LongIntMap read(ByteBuffer in) {
+		int size = in.getInt();
+		long[] keys = new long[in.getInt()];
+		in.asLongBuffer().get(keys);
+		in.position(in.position() + 8 * keys.length);
+		return new LongIntMap(keys, RBEMModelFormat.readInts(in), size);
+	}
+
+	/**
+	 * Packs two symbol identifiers into a single key
+	 */
+	static long key(int high, int low) {
+		return ((long) high << 32) | (low & 0xffffffffL);
+	}
+
+	/**
+	 * @param key
+	 *            Long The key
+	 * @return Int The value, ABSENT if the key is not present
+	 */
+	int get(long key) {
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		while (values[slot] != ABSENT) {
+			if (keys[slot] == key)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return ABSENT;
+	}
+
+	/**
+	 * @param key
+	 *            Long The key
+	 * @param value
+	 *            Int The value, must not be negative
+	 */
+	void put(long key, int value) {
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		while (values[slot] != ABSENT) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (++size * 2 > keys.length)
+			rehash();
+	}
+
+	/**
+	 * @return Int The number of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(values, ABSENT);
+		int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] == ABSENT)
+				continue;
+			int slot = mix(oldKeys[i]) & mask;
+			while (values[slot] != ABSENT)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,55 @@
+package nl.et4it;
+
+/**
+ * A growable list of pattern matches, stored as parallel int arrays. For every
+ * match it holds the pattern type, the start and end position within the
+ * sentence and the identifier of the pattern that matched.
+ */
+final class Matches {
+	int size = 0;
+	int[] types = new int[16];
+	int[] starts = new int[16];
+	int[] ends = new int[16];
+	int[] patterns = new int[16];
+	// A flag per match, for filters that need to remember matches
+	boolean[] marks = new boolean[16];
+
+	/**
+	 * Adds a match
+	 */
+	void add(int type, int start, int end, int pattern) {
+		if (size == types.length)
+			grow();
+		types[size] = type;
+		starts[size] = start;
+		ends[size] = end;
+		patterns[size] = pattern;
+		size++;
+	}
+
+	/**
+	 * Removes all matches, keeping the arrays for reuse
+	 */
+	void clear() {
+		size = 0;
+	}
+
+	private void grow() {
+		int capacity = types.length * 2;
+		int[] grown = new int[capacity];
+		System.arraycopy(types, 0, grown, 0, size);
+		types = grown;
+		grown = new int[capacity];
+		System.arraycopy(starts, 0, grown, 0, size);
+		starts = grown;
+		grown = new int[capacity];
+		System.arraycopy(ends, 0, grown, 0, size);
+		ends = grown;
+		grown = new int[capacity];
+		System.arraycopy(patterns, 0, grown, 0, size);
+		patterns = grown;
+		boolean[] grownMarks = new boolean[capacity];
+		System.arraycopy(marks, 0, grownMarks, 0, size);
+		marks = grownMarks;
+	}
+}
@@ -0,0 +1,473 @@
+package nl.et4it;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Compact, read-only form of a model that all matching is done against.
+ *
+ * All patterns are stored in a single int[] pool, one record per pattern laid
+ * out as [type, length, token 1, tag 1, ..., token n, tag n] with tokens and
+ * POS-tags given by their symbol identifiers. Records that share their first
+ * member are stored next to each other, and an open-addressing table maps the
+ * (token, tag) pair of that first member to the range of the pool holding
+ * them. A first member of the form ("_", tag) is stored with the WILDCARD
+ * token, just like the "_tag" index of the original model.
+ *
+ * A sentence is read once from left to right. At each position the table is
+ * probed for the (token, tag) pair found there and for its tag alone, and the
+ * records in the ranges found are matched from that position, which reports
+ * every match of every pattern type in a single pass.
+ */
+final class PatternIndex {
+	// Offsets within a record
+	static final int TYPE = 0;
+	static final int LENGTH = 1;
+	static final int MEMBERS = 2;
+	// Numbers the compiled models in the order they are created
+	private static final AtomicInteger GENERATIONS = new AtomicInteger();
+
+	final String[] patternTypes;
+	final SymbolTable tokenSymbols;
+	final SymbolTable tagSymbols;
+	// The records of all patterns
+	final int[] pool;
+	// First member to range, the value is the index of the range
+	final LongIntMap firstMembers;
+	// Start and end offsets within the pool, two per range
+	final int[] ranges;
+	// The number of patterns
+	final int size;
+	// Tells this compiled model apart from all others, see ResultCache
+	final int generation = GENERATIONS.incrementAndGet();
+
+	private PatternIndex(String[] patternTypes, SymbolTable tokenSymbols,
+			SymbolTable tagSymbols, int[] pool, LongIntMap firstMembers,
+			int[] ranges, int size) {
+		this.patternTypes = patternTypes;
+		this.tokenSymbols = tokenSymbols;
+		this.tagSymbols = tagSymbols;
+		this.pool = pool;
+		this.firstMembers = firstMembers;
+		this.ranges = ranges;
+		this.size = size;
+	}
+
+	/**
+	 * Writes the compiled model in the binary model format
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(patternTypes.length);
+		for (String patternType : patternTypes)
+			RBEMModelFormat.writeString(out, patternType);
+		tokenSymbols.write(out);
+		tagSymbols.write(out);
+		out.writeInt(size);
+		RBEMModelFormat.writeInts(out, pool, pool.length);
+		RBEMModelFormat.writeInts(out, ranges, ranges.length);
+		firstMembers.write(out);
+	}
+
+	/**
+	 * Reads a compiled model written by write. All arrays are copied out of
+	 * the buffer in bulk, nothing is done per pattern.
+	 */
+	static PatternIndex read(ByteBuffer in) {
+		String[] patternTypes = new String[in.getInt()];
+		for (int t = 0; t < patternTypes.length; t++)
+			patternTypes[t] = RBEMModelFormat.readString(in);
+		SymbolTable tokenSymbols = SymbolTable.read(in);
+		SymbolTable tagSymbols = SymbolTable.read(in);
+		int size = in.getInt();
+		int[] pool = RBEMModelFormat.readInts(in);
+		int[] ranges = RBEMModelFormat.readInts(in);
+		LongIntMap firstMembers = LongIntMap.read(in);
+		return new PatternIndex(patternTypes, tokenSymbols, tagSymbols, pool,
+				firstMembers, ranges, size);
+	}
+
+	/**
+	 * Compiles all patterns present in a model, interning their tokens and
+	 * POS-tags into symbol tables of its own. Nothing is added to these
+	 * tables afterwards, so a compiled model can be shared between threads.
+	 *
+	 * @param patternTypes
+	 *            String[] The pattern types of the model
+	 * @param model
+	 *            The indexed model as kept by RBEMModelBuilder
+	 * @return PatternIndex The compiled model
+	 */
+	static PatternIndex compile(
+			String[] patternTypes,
+			HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> model) {
+		return compile(patternTypes, model, null, null);
+	}
+
+	/**
+	 * Compiles all patterns present in a model against symbol tables it may
+	 * share with other models. A shared table is never added to: the model
+	 * interns into a copy, and uses the shared table itself when the copy
+	 * turns out to hold nothing new. The copy keeps the identifiers of the
+	 * shared table, so it can be shared in its place from then on.
+	 *
+	 * @param patternTypes
+	 *            String[] The pattern types of the model
+	 * @param model
+	 *            The indexed model as kept by RBEMModelBuilder
+	 * @param sharedTokens
+	 *            SymbolTable The token symbols to share, null for none
+	 * @param sharedTags
+	 *            SymbolTable The POS-tag symbols to share, null for none
+	 * @return PatternIndex The compiled model
+	 */
+	static PatternIndex compile(
+			String[] patternTypes,
+			HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> model,
+			SymbolTable sharedTokens, SymbolTable sharedTags) {
+		SymbolTable tokenSymbols = sharedTokens == null ? new SymbolTable()
+				: sharedTokens.copy();
+		SymbolTable tagSymbols = sharedTags == null ? new SymbolTable()
+				: sharedTags.copy();
+
+		// Encode all patterns, in the order of their types
+		int size = 0;
+		int poolSize = 0;
+		for (String patternType : patternTypes)
+			if (model.containsKey(patternType))
+				for (HashMap<Integer, HashMap<String, List<Pair<String, String>>>> lengths : model
+						.get(patternType).values())
+					for (HashMap<String, List<Pair<String, String>>> patterns : lengths
+							.values())
+						for (List<Pair<String, String>> pattern : patterns
+								.values())
+							if (!pattern.isEmpty()) {
+								size++;
+								poolSize += MEMBERS + 2 * pattern.size();
+							}
+
+		int[][] records = new int[size][];
+		int n = 0;
+		for (int type = 0; type < patternTypes.length; type++)
+			if (model.containsKey(patternTypes[type]))
+				for (HashMap<Integer, HashMap<String, List<Pair<String, String>>>> lengths : model
+						.get(patternTypes[type]).values())
+					for (HashMap<String, List<Pair<String, String>>> patterns : lengths
+							.values())
+						for (List<Pair<String, String>> pattern : patterns
+								.values())
+							if (!pattern.isEmpty())
+								records[n++] = encode(type, pattern,
+										tokenSymbols, tagSymbols);
+
+		// Group the records on their first member
+		LongIntMap firstMembers = new LongIntMap(size);
+		int[] group = new int[size];
+		int[] groupSizes = new int[size];
+		int groups = 0;
+		for (int i = 0; i < size; i++) {
+			long key = LongIntMap.key(records[i][MEMBERS],
+					records[i][MEMBERS + 1]);
+			int g = firstMembers.get(key);
+			if (g == LongIntMap.ABSENT) {
+				g = groups++;
+				firstMembers.put(key, g);
+			}
+			group[i] = g;
+			groupSizes[g] += records[i].length;
+		}
+
+		// Lay out the ranges and copy the records into them
+		int[] ranges = new int[2 * groups];
+		int offset = 0;
+		for (int g = 0; g < groups; g++) {
+			ranges[2 * g] = offset;
+			ranges[2 * g + 1] = offset;
+			offset += groupSizes[g];
+		}
+		int[] pool = new int[poolSize];
+		for (int i = 0; i < size; i++) {
+			int at = ranges[2 * group[i] + 1];
+			System.arraycopy(records[i], 0, pool, at, records[i].length);
+			ranges[2 * group[i] + 1] = at + records[i].length;
+		}
+
+		// Nothing new, share the tables themselves
+		if (sharedTokens != null && tokenSymbols.size() == sharedTokens.size())
+			tokenSymbols = sharedTokens;
+		if (sharedTags != null && tagSymbols.size() == sharedTags.size())
+			tagSymbols = sharedTags;
+
+		return new PatternIndex(patternTypes, tokenSymbols, tagSymbols, pool,
+				firstMembers, ranges, size);
+	}
+
+	/**
+	 * Gets the same patterns against other symbol tables, which must start
+	 * with all symbols of the current ones under the same identifiers. Symbols
+	 * only in the new tables occur in no pattern, so they never match just
+	 * like unknown symbols.
+	 *
+	 * @param tokenSymbols
+	 *            SymbolTable The new token symbols
+	 * @param tagSymbols
+	 *            SymbolTable The new POS-tag symbols
+	 * @return PatternIndex The compiled model, sharing its patterns with this
+	 *         one
+	 */
+	PatternIndex withSymbols(SymbolTable tokenSymbols, SymbolTable tagSymbols) {
+		return new PatternIndex(patternTypes, tokenSymbols, tagSymbols, pool,
+				firstMembers, ranges, size);
+	}
+
+	/**
+	 * Estimates the memory taken by the patterns, not counting the symbol
+	 * tables which may be shared
+	 *
+	 * @return Long The estimated number of bytes
+	 */
+	long bytes() {
+		return 64 + 4L * (pool.length + ranges.length) + firstMembers.bytes();
+	}
+
+	private static int[] encode(int type, List<Pair<String, String>> pattern,
+			SymbolTable tokenSymbols, SymbolTable tagSymbols) {
+		int[] record = new int[MEMBERS + 2 * pattern.size()];
+		record[TYPE] = type;
+		record[LENGTH] = pattern.size();
+		for (int k = 0; k < pattern.size(); k++) {
+			record[MEMBERS + 2 * k] = tokenSymbols.intern(pattern.get(k)
+					.getLeft());
+			record[MEMBERS + 2 * k + 1] = tagSymbols.intern(pattern.get(k)
+					.getRight());
+		}
+		return record;
+	}
+
+	/**
+	 * Turns the compiled model back into the indexed form RBEMModelBuilder
+	 * uses for adding and storing patterns. The indexes are
+	 * computed from the pattern members the same way addPattern does.
+	 *
+	 * @return The indexed model
+	 */
+	HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> toModel() {
+		HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> model = new HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>>();
+		for (String patternType : patternTypes)
+			model.put(
+					patternType,
+					new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
+
+		for (int record = 0; record < pool.length; record = next(record)) {
+			int length = pool[record + LENGTH];
+			List<Pair<String, String>> pattern = new LinkedList<Pair<String, String>>();
+			String firstIndex = null;
+			for (int k = 0; k < length; k++) {
+				String token = tokenSymbols.symbol(pool[record + MEMBERS + 2
+						* k]);
+				String tag = tagSymbols.symbol(pool[record + MEMBERS + 2 * k
+						+ 1]);
+				pattern.add(new ImmutablePair<String, String>(token, tag));
+
+				if (firstIndex == null)
+					firstIndex = token.trim().toLowerCase() + tag.trim();
+			}
+
+			HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> patterns = model
+					.get(patternTypes[pool[record + TYPE]]);
+			if (!patterns.containsKey(firstIndex))
+				patterns.put(firstIndex,
+						new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
+			if (!patterns.get(firstIndex).containsKey(length))
+				patterns.get(firstIndex).put(length,
+						new HashMap<String, List<Pair<String, String>>>());
+			patterns.get(firstIndex).get(length).put(key(record), pattern);
+		}
+
+		return model;
+	}
+
+	/**
+	 * Gets the full index key of a pattern, computed from its members the
+	 * same way addPattern does
+	 *
+	 * @param record
+	 *            Int The offset of the record of the pattern in the pool
+	 * @return String The key
+	 */
+	String key(int record) {
+		StringBuilder key = new StringBuilder();
+		for (int k = 0; k < pool[record + LENGTH]; k++)
+			key.append(
+					tokenSymbols.symbol(pool[record + MEMBERS + 2 * k]).trim()
+							.toLowerCase()).append(
+					tagSymbols.symbol(pool[record + MEMBERS + 2 * k + 1])
+							.trim());
+		return key.toString();
+	}
+
+	/**
+	 * @param record
+	 *            Int The offset of a record in the pool
+	 * @return Int The offset of the record following it
+	 */
+	int next(int record) {
+		return record + MEMBERS + 2 * pool[record + LENGTH];
+	}
+
+	/**
+	 * Matches the patterns of all types against a sentence in one pass
+	 *
+	 * @param sentence
+	 *            EncodedSentence The sentence
+	 * @param found
+	 *            Matches Receives all matched patterns with their type and
+	 *            their start and end positions within the sentence, ordered on
+	 *            start position. Patterns are identified by the offset of their
+	 *            record.
+	 */
+	void matchAll(EncodedSentence sentence, Matches found) {
+		found.clear();
+		for (int i = 0; i < sentence.length; i++)
+			matchAt(sentence, i, found);
+	}
+
+	/**
+	 * Matches the patterns of all types against a sentence like matchAll,
+	 * counting every pattern that is tried
+	 *
+	 * @param sentence
+	 *            EncodedSentence The sentence
+	 * @param found
+	 *            Matches Receives all matched patterns, see matchAll
+	 * @param counts
+	 *            PatternProfiler.Counts Receives the attempts, matches and
+	 *            time of every pattern tried
+	 */
+	void matchAll(EncodedSentence sentence, Matches found,
+			PatternProfiler.Counts counts) {
+		found.clear();
+		for (int i = 0; i < sentence.length; i++) {
+			int sToken = sentence.tokens[i];
+			int sTag = sentence.tags[i];
+			if (sTag == SymbolTable.UNKNOWN)
+				continue;
+			if (sToken != SymbolTable.UNKNOWN)
+				matchRange(sentence, i,
+						firstMembers.get(LongIntMap.key(sToken, sTag)), found,
+						counts);
+			if (sToken != SymbolTable.WILDCARD)
+				matchRange(sentence, i, firstMembers.get(LongIntMap.key(
+						SymbolTable.WILDCARD, sTag)), found, counts);
+		}
+	}
+
+	/**
+	 * Adds the matches of all patterns starting at a single position of a
+	 * sentence, in the order matchAll adds them
+	 *
+	 * @param sentence
+	 *            EncodedSentence The sentence
+	 * @param position
+	 *            Int The position the patterns start at
+	 * @param found
+	 *            Matches Receives the matches
+	 */
+	void matchAt(EncodedSentence sentence, int position, Matches found) {
+		int sToken = sentence.tokens[position];
+		int sTag = sentence.tags[position];
+		if (sTag == SymbolTable.UNKNOWN)
+			return;
+
+		// Patterns starting with this token and tag
+		if (sToken != SymbolTable.UNKNOWN)
+			matchRange(sentence, position,
+					firstMembers.get(LongIntMap.key(sToken, sTag)), found);
+		// Patterns starting with just this tag
+		if (sToken != SymbolTable.WILDCARD)
+			matchRange(sentence, position, firstMembers.get(LongIntMap.key(
+					SymbolTable.WILDCARD, sTag)), found);
+	}
+
+	/**
+	 * Adds the matches of all patterns starting at a single position like
+	 * matchAt, and finds the last sentence position matching them looks at,
+	 * see PatternMatcher.matchWithReach
+	 *
+	 * @param sentence
+	 *            EncodedSentence The sentence
+	 * @param position
+	 *            Int The position the patterns start at
+	 * @param found
+	 *            Matches Receives the matches
+	 * @return Int The last position looked at, the length of the sentence if
+	 *         the outcome depends on where the sentence ends
+	 */
+	int matchAtWithReach(EncodedSentence sentence, int position, Matches found) {
+		int sToken = sentence.tokens[position];
+		int sTag = sentence.tags[position];
+		int reach = position;
+		if (sTag == SymbolTable.UNKNOWN)
+			return reach;
+		if (sToken != SymbolTable.UNKNOWN)
+			reach = Math.max(reach, matchRangeWithReach(sentence, position,
+					firstMembers.get(LongIntMap.key(sToken, sTag)), found));
+		if (sToken != SymbolTable.WILDCARD)
+			reach = Math.max(reach, matchRangeWithReach(sentence, position,
+					firstMembers.get(LongIntMap.key(SymbolTable.WILDCARD, sTag)),
+					found));
+		return reach;
+	}
+
+	private int matchRangeWithReach(EncodedSentence sentence, int position,
+			int range, Matches found) {
+		int reach = position;
+		if (range == LongIntMap.ABSENT)
+			return reach;
+		int end = ranges[2 * range + 1];
+		for (int record = ranges[2 * range]; record < end; record = next(record)) {
+			long matched = PatternMatcher.matchWithReach(sentence.tokens,
+					sentence.tags, sentence.length, pool, record, position);
+			int matchEnd = (int) matched;
+			if (matchEnd >= 0)
+				found.add(pool[record + TYPE], position, matchEnd, record);
+			reach = Math.max(reach, (int) (matched >>> 32));
+		}
+		return reach;
+	}
+
+	private void matchRange(EncodedSentence sentence, int position, int range,
+			Matches found) {
+		if (range == LongIntMap.ABSENT)
+			return;
+		int end = ranges[2 * range + 1];
+		for (int record = ranges[2 * range]; record < end; record = next(record)) {
+			int matchEnd = PatternMatcher.match(sentence.tokens,
+					sentence.tags, sentence.length, pool, record, 0, position);
+			if (matchEnd >= 0)
+				found.add(pool[record + TYPE], position, matchEnd, record);
+		}
+	}
+
+	private void matchRange(EncodedSentence sentence, int position, int range,
+			Matches found, PatternProfiler.Counts counts) {
+		if (range == LongIntMap.ABSENT)
+			return;
+		int end = ranges[2 * range + 1];
+		for (int record = ranges[2 * range]; record < end; record = next(record)) {
+			long start = System.nanoTime();
+			int matchEnd = PatternMatcher.match(sentence.tokens,
+					sentence.tags, sentence.length, pool, record, 0, position);
+			counts.attempt(record, matchEnd >= 0, System.nanoTime() - start);
+			if (matchEnd >= 0)
+				found.add(pool[record + TYPE], position, matchEnd, record);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package nl.et4it;
+
+/**
+ * Matches a single pattern against a sentence, starting at a given member of
+ * the pattern and a given position in the sentence.
+ *
+ * Both the sentence and the pattern are given as arrays and the matcher only
+ * moves two offsets through them, so no matter how long the sentence is or
+ * how many wildcards the pattern has, nothing is allocated and the stack does
+ * not grow.
+ */
+final class PatternMatcher {
+	// The kinds of pattern members
+	static final byte LITERAL = 0;
+	static final byte TAG = 1;
+	static final byte ANY = 2;
+	static final byte MULTI = 3;
+
+	private PatternMatcher() {
+	}
+
+	/**
+	 * Determines the kind of a pattern member from its symbols
+	 *
+	 * @param token
+	 *            Int The token symbol of the member
+	 * @param tag
+	 *            Int The POS-tag symbol of the member
+	 * @return Byte The kind of the member
+	 */
+	static byte kind(int token, int tag) {
+		if (token == SymbolTable.MULTI_WILDCARD
+				&& tag == SymbolTable.MULTI_WILDCARD)
+			return MULTI;
+		if (token == SymbolTable.WILDCARD)
+			return tag == SymbolTable.WILDCARD ? ANY : TAG;
+		return LITERAL;
+	}
+
+	/**
+	 * Matches a pattern from a given member onwards
+	 *
+	 * The pattern is run as a small state machine whose state is the pair of
+	 * the current pattern member and sentence position. A multi-position
+	 * wildcard ("*", "*") stays in its state and skips sentence members until
+	 * the member following it is seen either at the current or at the next
+	 * position, after which both are consumed in one step. A single-position
+	 * wildcard ("_", "_") consumes any member and ("_", tag) consumes any
+	 * member with that tag.
+	 *
+	 * @param sTokens
+	 *            Array[Int] The token symbols of the sentence
+	 * @param sTags
+	 *            Array[Int] The POS-tag symbols of the sentence
+	 * @param length
+	 *            Int The length of the sentence
+	 * @param pool
+	 *            Array[Int] The pattern pool of the model
+	 * @param record
+	 *            Int The offset of the pattern's record within the pool
+	 * @param member
+	 *            Int The first pattern member that needs to be matched
+	 * @param position
+	 *            Int The sentence position to match that member at
+	 * @return Int The end position of the pattern within the sentence, -1 if
+	 *         the pattern does not match
+	 */
+	static int match(int[] sTokens, int[] sTags, int length, int[] pool,
+			int record, int member, int position) {
+		int members = pool[record + PatternIndex.LENGTH];
+		int at = record + PatternIndex.MEMBERS;
+		int k = member;
+		int p = position;
+		while (k < members) {
+			// Pattern is not depleted yet, maybe sentence is though
+			if (p >= length)
+				return -1;
+
+			int pToken = pool[at + 2 * k];
+			int pTag = pool[at + 2 * k + 1];
+			switch (kind(pToken, pTag)) {
+			case MULTI:
+				// Nothing to match the wildcard against or nothing after it
+				if (p + 1 >= length || k + 1 == members)
+					return -1;
+				// Peek at the member following the wildcard
+				int nToken = pool[at + 2 * k + 2];
+				int nTag = pool[at + 2 * k + 3];
+				if (peek(sTokens[p + 1], sTags[p + 1], nToken, nTag)
+						|| peek(sTokens[p], sTags[p], nToken, nTag)) {
+					// Next also matches, shift by 2
+					k += 2;
+					p += 2;
+				} else
+					// No direct match, maybe next element
+					p++;
+				break;
+			case ANY:
+				k++;
+				p++;
+				break;
+			case TAG:
+				if (sTags[p] != pTag)
+					return -1;
+				k++;
+				p++;
+				break;
+			default:
+				if (sTokens[p] != pToken || sTags[p] != pTag)
+					return -1;
+				k++;
+				p++;
+			}
+		}
+
+		// Found the pattern, the last position we consumed is its end
+		return p - 1;
+	}
+
+	/**
+	 * Matches a pattern from its first member like match, and also finds how
+	 * far matching looks into the sentence, whether it matches or not. Two
+	 * sentences that agree on all positions up to that reach give the same
+	 * outcome.
+	 *
+	 * @param sTokens
+	 *            Array[Int] The token symbols of the sentence
+	 * @param sTags
+	 *            Array[Int] The POS-tag symbols of the sentence
+	 * @param length
+	 *            Int The length of the sentence
+	 * @param pool
+	 *            Array[Int] The pattern pool of the model
+	 * @param record
+	 *            Int The offset of the pattern's record within the pool
+	 * @param position
+	 *            Int The sentence position the pattern starts at
+	 * @return Long The end position as match returns it in the low 32 bits,
+	 *         and in the high 32 bits the last position looked at, the length
+	 *         of the sentence if the outcome depends on where it ends
+	 */
+	static long matchWithReach(int[] sTokens, int[] sTags, int length,
+			int[] pool, int record, int position) {
+		int members = pool[record + PatternIndex.LENGTH];
+		int at = record + PatternIndex.MEMBERS;
+		int k = 0;
+		int p = position;
+		while (k < members) {
+			if (p >= length)
+				return withReach(-1, length);
+
+			int pToken = pool[at + 2 * k];
+			int pTag = pool[at + 2 * k + 1];
+			switch (kind(pToken, pTag)) {
+			case MULTI:
+				if (k + 1 == members)
+					return withReach(-1, p);
+				if (p + 1 >= length)
+					return withReach(-1, length);
+				int nToken = pool[at + 2 * k + 2];
+				int nTag = pool[at + 2 * k + 3];
+				if (peek(sTokens[p + 1], sTags[p + 1], nToken, nTag)
+						|| peek(sTokens[p], sTags[p], nToken, nTag)) {
+					k += 2;
+					p += 2;
+				} else
+					p++;
+				break;
+			case ANY:
+				k++;
+				p++;
+				break;
+			case TAG:
+				if (sTags[p] != pTag)
+					return withReach(-1, p);
+				k++;
+				p++;
+				break;
+			default:
+				if (sTokens[p] != pToken || sTags[p] != pTag)
+					return withReach(-1, p);
+				k++;
+				p++;
+			}
+		}
+		return withReach(p - 1, p - 1);
+	}
+
+	private static long withReach(int end, int reach) {
+		return (long) reach << 32 | (end & 0xffffffffL);
+	}
+
+	/**
+	 * Checks whether a pattern member matches a sentence member when looking
+	 * ahead past a multi-position wildcard
+	 */
+	private static boolean peek(int sToken, int sTag, int pToken, int pTag) {
+		if (sToken == pToken && sTag == pTag)
+			return true;
+		return pToken == SymbolTable.WILDCARD && sTag == pTag;
+	}
+}
@@ -0,0 +1,263 @@
+package nl.et4it;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Counts, for every pattern of a model, how often it is tried, how often it
+ * matches, how often a match is then removed as subsumed and how long
+ * matching it takes, so that patterns that never fire or take most of the
+ * time can be found and pruned. Classifiers profile once it is set with
+ * setProfiler; they then match without the span memo, and every pattern
+ * that is tried is timed on its own, which makes classifying several times
+ * slower.
+ *
+ * Every thread counts into arrays of its own, which are only added up when
+ * the statistics are read, so profiling threads do not contend. Statistics
+ * are kept for one compiled model at a time: once a classifier classifies
+ * against another model, like after loadModel or addPattern, counting
+ * starts over for that model.
+ */
+public class PatternProfiler {
+	// Longer attempts are taken to be the thread being paused or descheduled
+	// and do not count towards the time, a single attempt takes microseconds
+	// at most even on long sentences
+	static final long MAX_NANOS = 1000000;
+
+	private volatile Profile profile = null;
+
+	/**
+	 * Gets the counts of the current thread for a compiled model, starting
+	 * over if it is not the model profiled so far
+	 */
+	Counts counts(PatternIndex index) {
+		Profile current = profile;
+		if (current == null || current.index != index) {
+			synchronized (this) {
+				current = profile;
+				if (current == null || current.index != index) {
+					current = new Profile(index);
+					profile = current;
+				}
+			}
+		}
+		return current.local.get();
+	}
+
+	/**
+	 * Forgets all counts
+	 */
+	public synchronized void clear() {
+		profile = null;
+	}
+
+	/**
+	 * Gets the statistics of every pattern of the model profiled, including
+	 * the patterns never tried
+	 *
+	 * @return List[Statistics] The statistics, the most time spent matching
+	 *         first, empty if nothing was profiled yet
+	 */
+	public List<Statistics> getStatistics() {
+		Profile current = profile;
+		List<Statistics> statistics = new ArrayList<Statistics>();
+		if (current == null)
+			return statistics;
+
+		PatternIndex index = current.index;
+		long[] attempts = new long[index.size];
+		long[] matches = new long[index.size];
+		long[] kept = new long[index.size];
+		long[] nanos = new long[index.size];
+		for (Counts counts : current.all)
+			for (int p = 0; p < index.size; p++) {
+				attempts[p] += counts.attempts[p];
+				matches[p] += counts.matches[p];
+				kept[p] += counts.kept[p];
+				nanos[p] += counts.nanos[p];
+			}
+
+		int p = 0;
+		for (int record = 0; record < index.pool.length; record = index
+				.next(record), p++)
+			statistics.add(new Statistics(
+					index.patternTypes[index.pool[record + PatternIndex.TYPE]],
+					index.key(record), attempts[p], matches[p], matches[p]
+							- kept[p], nanos[p]));
+		Collections.sort(statistics, new Comparator<Statistics>() {
+			public int compare(Statistics left, Statistics right) {
+				return Long.compare(right.nanos, left.nanos);
+			}
+		});
+		return statistics;
+	}
+
+	/**
+	 * Writes the statistics of every pattern, see getStatistics, as
+	 * tab-separated lines of pattern type, index key, attempts, matches,
+	 * subsumed matches and nanoseconds, after a header line
+	 *
+	 * @param out
+	 *            Writer Receives the report, it is not closed
+	 */
+	public void writeReport(Writer out) throws IOException {
+		out.write("type\tpattern\tattempts\tmatches\tsubsumed\tnanos\n");
+		for (Statistics statistics : getStatistics())
+			out.write(statistics.patternType + "\t" + statistics.pattern
+					+ "\t" + statistics.attempts + "\t" + statistics.matches
+					+ "\t" + statistics.subsumed + "\t" + statistics.nanos
+					+ "\n");
+		out.flush();
+	}
+
+	/**
+	 * The counts of all threads for one compiled model
+	 */
+	private static final class Profile {
+		final PatternIndex index;
+		// The number of every pattern, by the offset of its record
+		final int[] numbers;
+		final ConcurrentLinkedQueue<Counts> all = new ConcurrentLinkedQueue<Counts>();
+		final ThreadLocal<Counts> local = new ThreadLocal<Counts>() {
+			@Override
+			protected Counts initialValue() {
+				Counts counts = new Counts(index, numbers);
+				all.add(counts);
+				return counts;
+			}
+		};
+
+		Profile(PatternIndex index) {
+			this.index = index;
+			numbers = new int[index.pool.length];
+			int p = 0;
+			for (int record = 0; record < index.pool.length; record = index
+					.next(record))
+				numbers[record] = p++;
+		}
+	}
+
+	/**
+	 * The counts of a single thread, per pattern
+	 */
+	static final class Counts {
+		private final int[] numbers;
+		final long[] attempts;
+		final long[] matches;
+		final long[] kept;
+		final long[] nanos;
+
+		Counts(PatternIndex index, int[] numbers) {
+			this.numbers = numbers;
+			attempts = new long[index.size];
+			matches = new long[index.size];
+			kept = new long[index.size];
+			nanos = new long[index.size];
+		}
+
+		/**
+		 * Counts a pattern that was tried
+		 *
+		 * @param record
+		 *            Int The offset of the record of the pattern
+		 * @param matched
+		 *            Boolean Whether it matched
+		 * @param time
+		 *            Long The nanoseconds it took, not counted if over
+		 *            MAX_NANOS
+		 */
+		void attempt(int record, boolean matched, long time) {
+			int p = numbers[record];
+			attempts[p]++;
+			if (matched)
+				matches[p]++;
+			if (time < MAX_NANOS)
+				nanos[p] += time;
+		}
+
+		/**
+		 * Counts the matches that were not subsumed
+		 *
+		 * @param patterns
+		 *            Array[Matches] The matches left, per pattern type. Only
+		 *            the matches of its own type are counted for every type,
+		 *            as the attenuators also receive those of other types.
+		 */
+		void kept(Matches[] patterns) {
+			for (int t = 0; t < patterns.length; t++)
+				for (int i = 0; i < patterns[t].size; i++)
+					if (patterns[t].types[i] == t)
+						kept[numbers[patterns[t].patterns[i]]]++;
+		}
+	}
+
+	/**
+	 * How a pattern fared, never modified
+	 */
+	public static final class Statistics {
+		final String patternType;
+		final String pattern;
+		final long attempts;
+		final long matches;
+		final long subsumed;
+		final long nanos;
+
+		Statistics(String patternType, String pattern, long attempts,
+				long matches, long subsumed, long nanos) {
+			this.patternType = patternType;
+			this.pattern = pattern;
+			this.attempts = attempts;
+			this.matches = matches;
+			this.subsumed = subsumed;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return String The pattern type, like amplifiers
+		 */
+		public String getPatternType() {
+			return patternType;
+		}
+
+		/**
+		 * @return String The full index key of the pattern, its tokens and
+		 *         POS-tags concatenated as in the model
+		 */
+		public String getPattern() {
+			return pattern;
+		}
+
+		/**
+		 * @return Long The number of times the pattern was tried
+		 */
+		public long getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * @return Long The number of times the pattern matched
+		 */
+		public long getMatches() {
+			return matches;
+		}
+
+		/**
+		 * @return Long The number of matches removed as subsumed
+		 */
+		public long getSubsumed() {
+			return subsumed;
+		}
+
+		/**
+		 * @return Long The nanoseconds spent trying the pattern, in total
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+	}
+}
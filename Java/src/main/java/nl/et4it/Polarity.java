@@ -0,0 +1,22 @@
+package nl.et4it;
+
+/**
+ * The polarity label of a sentence, see PolarityResult
+ */
+public enum Polarity {
+	NEGATIVE("negative"), NEUTRAL("neutral"), POSITIVE("positive");
+
+	private final String label;
+
+	private Polarity(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * @return String The label as RBEMPolarity.classify returns it, like
+	 *         "positive"
+	 */
+	public String getLabel() {
+		return label;
+	}
+}
@@ -0,0 +1,42 @@
+package nl.et4it;
+
+/**
+ * The label and score of a sentence classified on polarity, for callers
+ * that classify many sentences and do not want a Pair of a string and a
+ * boxed score for every one of them. RBEMPolarity and RBEMPolarityEmotion
+ * fill it in, so one holder can be reused for every sentence classified on
+ * the same thread.
+ */
+public final class PolarityResult {
+	private Polarity label = Polarity.NEUTRAL;
+	private double score = 0.0;
+
+	/**
+	 * Sets the score, and the label that goes with it
+	 *
+	 * @param score
+	 *            Double The sum of the emissions of a sentence
+	 */
+	void set(double score) {
+		this.score = score;
+		label = Polarity.NEUTRAL;
+		if (score > 0)
+			label = Polarity.POSITIVE;
+		if (score < 0)
+			label = Polarity.NEGATIVE;
+	}
+
+	/**
+	 * @return Polarity The label, POSITIVE, NEGATIVE or NEUTRAL
+	 */
+	public Polarity getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return Double The score, positive or negative as the label
+	 */
+	public double getScore() {
+		return score;
+	}
+}
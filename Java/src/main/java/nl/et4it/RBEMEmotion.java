@@ -1,1273 +1,607 @@
 package nl.et4it;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.apache.commons.lang3.tuple.Pair;
-import org.apache.commons.lang3.tuple.Triple;
-import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.JsonToken;
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONObject;
 
 public class RBEMEmotion {
-	/*
-	 * This is the actual model of the algorithm, it's kept in-memory for fast
-	 * access
-	 * 
-	 * It works with indexing as follows:
-	 * 
-	 * The first key is the pattern type, then for each pattern type: The next
-	 * key is the pattern itself, defined by a concatenation of the first word
-	 * and POS-tag pair of the pattern, then for each such pattern: The next key
-	 * is the actual length (number of (word, POS-tag)-pairs of the pattern,
-	 * then for each pattern of such length: The next key is the complete
-	 * concatenation of the pattern's (word, POS-tag) pairs, finally: A list of
-	 * actual (word, POS-tag)-pairs, in-order as a List whose size is always 2
-	 */
-	HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> model = new HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>>();
 	Integer emissionRange = 3;
+	// Whether subsumed patterns are removed using strict instead of legacy
+	// semantics, see Subsumption
+	Boolean strictSubsumption = false;
+	// The pattern types this model knows of
+	static final String[] PATTERN_TYPES = { "amplifiers", "attenuators",
+			"continuators", "leftflips", "neutrals", "objectives", "rightflips",
+			"stops", "joy", "sadness", "fear", "anger", "trust", "disgust",
+			"surprise", "anticipation" };
+	// We have four different axes of emissions
+	static final String[] AXES = { "joySadness", "fearAnger", "trustDisgust",
+			"surpriseAnticipation" };
+	// Positions of the axes in AXES, and in the scores classify writes
+	public static final int JOY_SADNESS = 0;
+	public static final int FEAR_ANGER = 1;
+	public static final int TRUST_DISGUST = 2;
+	public static final int SURPRISE_ANTICIPATION = 3;
+	// Identifiers of the pattern types, their position in PATTERN_TYPES
+	static final int AMPLIFIERS = 0;
+	static final int ATTENUATORS = 1;
+	static final int CONTINUATORS = 2;
+	static final int LEFTFLIPS = 3;
+	static final int NEUTRALS = 4;
+	static final int OBJECTIVES = 5;
+	static final int RIGHTFLIPS = 6;
+	static final int STOPS = 7;
+	static final int JOY = 8;
+	static final int SADNESS = 9;
+	static final int FEAR = 10;
+	static final int ANGER = 11;
+	static final int TRUST = 12;
+	static final int DISGUST = 13;
+	static final int SURPRISE = 14;
+	static final int ANTICIPATION = 15;
+	// The pool batches are classified on
+	ForkJoinPool pool = ForkJoinPool.commonPool();
+	// The maximum number of sentences in flight when classifying a corpus
+	Integer window = 4096;
+	// Results of sentences classified before, null when not caching
+	volatile ResultCache<HashMap<String, Double>> cache = null;
+	// Matches of spans of sentences classified before, null when not used
+	volatile SpanMemo spanMemo = null;
+	// Counts how every pattern fares, null when not profiling
+	volatile PatternProfiler profiler = null;
+	// Receives the measurements of classified sentences
+	volatile ClassificationMetrics metrics = ClassificationMetrics.NONE;
+	// The compiled model all classification is done against. It is never
+	// modified, only replaced as a whole
+	final AtomicReference<RBEMModel> model = new AtomicReference<RBEMModel>();
+	// Holds the patterns while they are being added to, null when there are
+	// no changes since the model was last published
+	RBEMModelBuilder builder = null;
+	// Whether the builder holds changes that are not published yet
+	volatile boolean stale = false;
 
 	public RBEMEmotion() {
 		// Initialize the model
-		model.put(
-				"amplifiers",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"attenuators",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"continuators",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"leftflips",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"neutrals",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"objectives",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"rightflips",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"stops",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"joy",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"sadness",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"trust",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"disgust",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"fear",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"anger",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"surprise",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"anticipation",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
+		model.set(modelBuilder().build());
 	}
 
 	/**
-	 * Given a set of words and POS-tag, this function makes a list that can be
-	 * used directly by RBEM
+	 * Creates an empty builder for emotion models
 	 * 
-	 * @param words
-	 *            List<String> The words
-	 * @param tags
-	 *            List<String> The POS-tags
-	 * @return List<List<String>> The vector
+	 * @return RBEMModelBuilder The builder
+	 */
+	public static RBEMModelBuilder modelBuilder() {
+		return new RBEMModelBuilder(PATTERN_TYPES, "rbeme");
+	}
+
+	/**
+	 * Tells whether the emissions of the emotion axes are computed with the
+	 * Vector API in this JVM, see AxisKernel
+	 *
+	 * @return Boolean Whether the vector kernel is used
 	 */
-	private List<Pair<String, String>> makeVector(List<String> words,
-			List<String> tags) throws Exception {
-		// See if there is an equal numebr of words and tags
-		if (words.size() != tags.size())
-			throw new Exception(
-					"The number of words is unequal to the number of POS-tags");
-
-		// Result list
-		List<Pair<String, String>> vector = new ArrayList<Pair<String, String>>();
-		// Go through words and tags
-		for (int i = 0; i < words.size(); i++)
-			vector.add(new ImmutablePair<String, String>(words.get(i)
-					.toLowerCase(), tags.get(i)));
-
-		// Return the vector
-		return vector;
+	public static boolean isVectorized() {
+		return AxisKernel.get().isVectorized();
 	}
 
 	/**
-	 * Matches a single pattern for which there is clue it might potentially
-	 * occur within the sentence
+	 * Gets the model that is currently classified against, publishing any
+	 * added patterns first
 	 * 
-	 * @param sentence
-	 *            List[(String, String)] The remaining sentence that needs to be
-	 *            processed, represented as (token, tag) pairs
-	 * @param pattern
-	 *            List[(String, String)] The remaining pattern that needs to be
-	 *            processed, represented as (token, tag) pairs
-	 * @param offset
-	 *            Int The current offset, the position within the sentence we
-	 *            are at
-	 * @param (Boolean, Int) A tuple indicating first whether the pattern was
-	 *        found or not and the end position of the pattern We do not return
-	 *        the starting position because the initial call to this function
-	 *        will know (in offset) the starting position
+	 * @return RBEMModel The model
 	 */
-	private Pair<Boolean, Integer> matchPattern(
-			List<Pair<String, String>> sentence,
-			List<Pair<String, String>> pattern, int offset) {
-		if (pattern.isEmpty() || offset > 500) {
-			// Found the right pattern, return where we found it
-			return new ImmutablePair<Boolean, Integer>(true, offset - 1);
-		} else {
-			// Get the first pair of word, POS-tag that we need to match
-			Pair<String, String> member = pattern.get(0);
-			// Pattern is not depleted yet, maybe sentence is though
-			if (sentence.isEmpty()) {
-				// Sentence is depleted, we failed to match our pattern
-				return new ImmutablePair<Boolean, Integer>(false, -1);
-			} else {
-				// Get the token and tag of the current sentence member
-				String sToken = sentence.get(0).getLeft();
-				String sTag = sentence.get(0).getRight();
-
-				// Get the sentence that is yet to be parsed as well as the
-				// pattern yet to be parsed
-				List<Pair<String, String>> remainingSentence = sentence
-						.subList(1, sentence.size());
-				List<Pair<String, String>> remainingPattern = pattern.subList(
-						1, pattern.size());
-
-				// We need to traverse further based on our pattern member
-				if (member.getLeft().equals("*")
-						&& member.getRight().equals("*")) {
-					// We are dealing with a multi-position wildcard here
-					if (!remainingSentence.isEmpty()) {
-						if (remainingPattern.isEmpty()) {
-							// Pattern wasn't found
-							return new ImmutablePair<Boolean, Integer>(false,
-									-1);
-						} else {
-							// Since we are dealing with a wild-card, we need to
-							// peek forward
-							Pair<String, String> nextPatternMember = remainingPattern
-									.get(0);
-							Pair<String, String> nextSentenceMember = remainingSentence
-									.get(0);
-
-							// Check for match
-							if ((nextPatternMember.getLeft().equals(
-									nextSentenceMember.getLeft()) && nextPatternMember
-									.getRight().equals(
-											nextSentenceMember.getRight()))
-									|| (nextPatternMember.getLeft().equals("_") && nextPatternMember
-											.getRight().equals(
-													nextSentenceMember
-															.getRight()))
-									|| (nextPatternMember.getLeft().equals(
-											sToken) && nextPatternMember
-											.getRight().equals(sTag))
-									|| (nextPatternMember.getLeft().equals("_") && nextPatternMember
-											.getRight().equals(sTag))) {
-								// Next also matches, shift by 2
-								return matchPattern(remainingSentence.subList(
-										1, remainingSentence.size()),
-										remainingPattern.subList(1,
-												remainingPattern.size()),
-										offset + 2);
-							} else {
-								// No direct match, maybe next element
-								return matchPattern(remainingSentence, pattern,
-										offset + 1);
-							}
-						}
-					} else
-						return new ImmutablePair<Boolean, Integer>(false, -1);
-				} else if (member.getLeft().equals("_")
-						&& member.getRight().equals("_")) {
-					// Single-position wildcard
-					return matchPattern(remainingSentence, remainingPattern,
-							offset + 1);
-				} else if (member.getLeft().equals("_")
-						&& member.getRight().equals(member.getRight())) {
-					// Just match the tag
-					if (sTag.equals(member.getRight())) {
-						// Match, continue
-						return matchPattern(remainingSentence,
-								remainingPattern, offset + 1);
-					} else
-						return new ImmutablePair<Boolean, Integer>(false, -1);
-				} else {
-					// Regular match, check if current pairs match
-					if (sToken.equals(member.getLeft())
-							&& sTag.equals(member.getRight())) {
-						// Match, continue
-						return matchPattern(remainingSentence,
-								remainingPattern, offset + 1);
-					} else
-						return new ImmutablePair<Boolean, Integer>(false, -1);
-				}
-			}
-		}
+	public RBEMModel getModel() {
+		return stale ? publish() : model.get();
 	}
 
 	/**
-	 * Matches patterns of a given pattern type against a sentence
+	 * Replaces the model that is classified against. Classifications that are
+	 * already running finish on the model they started with.
 	 * 
-	 * @param sentence
-	 *            List[(String, String)] The sentence represented as a list of
-	 *            (token, tag) tuples
-	 * @param patternType
-	 *            String The pattern type to match the known patterns of
-	 * @return List[(List[(String, String)], Int, Int)] A list containing all
-	 *         matched patterns as (token, tag) pairs and their respective start
-	 *         and end positions within the sentence
+	 * @param snapshot
+	 *            RBEMModel The new model
+	 * @return Boolean Whether the model was replaced, false if it is not a
+	 *         emotion model
 	 */
-	private List<Triple<List<Pair<String, String>>, Integer, Integer>> matchPatterns(
-			List<Pair<String, String>> sentence, String patternType) {
-		// This will return all our patterns found, together with start- and
-		// end-index
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> foundPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-
-		// Since the model is highly indexed, we iterate through the sentence
-		// and match it against our model
-		List<Pair<String, String>> runningSentence = sentence;
-		for (int i = 0; i < sentence.size(); i++) {
-			// Get the current pair
-			Pair<String, String> tuple = sentence.get(i);
-			// Compute first index, concatenation of word and POS-tag, taking
-			// the possibility of a wildcard into account
-			String firstIndex = tuple.getLeft() + tuple.getRight();
-			String firstIndexWildcard = "_" + tuple.getRight();
-
-			// Match the regular pattern
-			if (model.get(patternType).containsKey(firstIndex)) {
-				// We are dealing with a regulard index (word AND pos-tag
-				// given), find all matches
-				for (Entry<Integer, HashMap<String, List<Pair<String, String>>>> entry1 : model
-						.get(patternType).get(firstIndex).entrySet()) {
-					// Get length and the patterns present in this pattern group
-					HashMap<String, List<Pair<String, String>>> patterns = entry1
-							.getValue();
-					// Now get all the patterns of this length
-					for (Entry<String, List<Pair<String, String>>> entry2 : patterns
-							.entrySet()) {
-						// Get the full index of the pattern and the pattern
-						// itself
-						List<Pair<String, String>> pattern = entry2.getValue();
-
-						// Do a match
-						Pair<Boolean, Integer> pFound = matchPattern(
-								runningSentence, pattern, i);
-						// If we found a pattern, we ought to return it
-						if (pFound.getLeft()) {
-							// Add it
-							foundPatterns
-									.add(new ImmutableTriple<List<Pair<String, String>>, Integer, Integer>(
-											pattern, i, pFound.getRight()));
-						}
-					}
-				}
-			}
-			// Now do the same for the wildcard first-index
-			if (model.get(patternType).containsKey(firstIndexWildcard)) {
-				for (Entry<Integer, HashMap<String, List<Pair<String, String>>>> entry1 : model
-						.get(patternType).get(firstIndexWildcard).entrySet()) {
-					// Get length and the patterns present in this pattern group
-					HashMap<String, List<Pair<String, String>>> patterns = entry1
-							.getValue();
-					// Now get all the patterns of this length
-					for (Entry<String, List<Pair<String, String>>> entry2 : patterns
-							.entrySet()) {
-						// Get the full index of the pattern and the pattern
-						// itself
-						List<Pair<String, String>> pattern = entry2.getValue();
-
-						// Do a match
-						Pair<Boolean, Integer> pFound = matchPattern(
-								runningSentence, pattern, i);
-						// If we found a pattern, we ought to return it
-						if (pFound.getLeft()) {
-							// Add it
-							foundPatterns
-									.add(new ImmutableTriple<List<Pair<String, String>>, Integer, Integer>(
-											pattern, i, pFound.getRight()));
-						}
-					}
-				}
-			}
+	public synchronized Boolean setModel(RBEMModel snapshot) {
+		if (!Arrays.equals(snapshot.index.patternTypes, PATTERN_TYPES))
+			return false;
+		builder = null;
+		stale = false;
+		model.set(snapshot);
+		return true;
+	}
 
-			// Move sliding window of running sentence
-			runningSentence = runningSentence
-					.subList(1, runningSentence.size());
+	/**
+	 * Compiles the patterns in the builder and publishes them as the model
+	 * that is classified against
+	 */
+	private synchronized RBEMModel publish() {
+		if (builder != null && stale) {
+			model.set(builder.build());
+			stale = false;
 		}
+		return model.get();
+	}
 
-		return foundPatterns;
+	/**
+	 * Gets the builder to add patterns to, holding the patterns of the
+	 * current model
+	 */
+	private RBEMModelBuilder editableModel() {
+		if (builder == null)
+			builder = new RBEMModelBuilder(model.get());
+		return builder;
 	}
 
 	/**
-	 * Checks if a pattern - based on its start and end positions - is subsumed
-	 * within another
+	 * Given a set of words and POS-tag, this function makes a vector that can
+	 * be used directly by RBEM: the lowercased words and the POS-tags encoded
+	 * against the symbols of the model
 	 * 
-	 * @param start
-	 *            Int The starting position of the pattern
-	 * @param end
-	 *            Int The ending position of the pattern
-	 * @param patternList
-	 *            List[(List[(String, String)], Int, Int)] The list of patterns
-	 *            to match against
+	 * @param index
+	 *            PatternIndex The compiled model
+	 * @param context
+	 *            ClassificationContext The context to encode the sentence in
+	 * @param words
+	 *            String[] The words
+	 * @param tags
+	 *            String[] The POS-tags
+	 * @return EncodedSentence The vector
 	 */
-	private Boolean isNotSubsumed(
-			Integer start,
-			Integer end,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> patternList) {
-		if (patternList.isEmpty())
-			return true;
-
-		Boolean result = true;
-		// Go through all patterns to find subsumed ones
-		for (int i = 0; i < patternList.size(); i++) {
-			Integer matchStart = patternList.get(i).getMiddle();
-			Integer matchEnd = patternList.get(i).getRight();
-
-			// Check the offsets
-			if (matchStart <= start && matchEnd > end) {
-				// SUbsumed
-				result = false;
-				break;
-			}
-		}
-		return result;
+	private EncodedSentence makeVector(PatternIndex index,
+			ClassificationContext context, String[] words, String[] tags)
+			throws Exception {
+		context.sentence.encode(index.tokenSymbols, index.tagSymbols, words,
+				tags);
+		return context.sentence;
 	}
 
 	/**
-	 * Removes all patterns that are somehow subsumed by other patterns
+	 * This is where the magic happens. An unlabeled sentence is classified on
+	 * polarity based on the model that is currently in memory. Any number of
+	 * threads can classify at the same time.
+	 * 
+	 * @param tokens
+	 * @param tags
+	 * @return
 	 */
-	private HashMap<String, List<Triple<List<Pair<String, String>>, Integer, Integer>>> removeSubsumed(
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> amplifierPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> attenuatorPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> continuatorPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> leftflipPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> neutralPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> objectivePatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> rightflipPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> stopPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> joyPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> sadnessPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> fearPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> angerPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> trustPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> disgustPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> surprisePatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> anticipationPatterns) {
-
-		// TODO: Make this bit tidier
-		// Go through the patterns per group and see whether they are contained
-		// within another pattern or not (yeah it's ugly)
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newAmplifierPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = attenuatorPatterns;
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < amplifierPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = amplifierPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newAmplifierPatterns.add(elem);
-			}
-		}
-
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newAttenuatorPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < attenuatorPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = attenuatorPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newAttenuatorPatterns.add(elem);
-			}
-		}
+	public HashMap<String, Double> classify(String[] tokens, String[] tags,
+			Boolean normalize) throws Exception {
+		return classify(getModel().index, ClassificationContext.get(), tokens,
+				tags, normalize);
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newContinuatorPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < continuatorPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = continuatorPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newContinuatorPatterns.add(elem);
-			}
+	/**
+	 * Classifies a sentence like classify(tokens, tags, normalize), but
+	 * writes the scores into an array instead of returning a new HashMap, so
+	 * nothing is allocated, hashed or boxed. When a result cache is set the
+	 * result comes from the cache and is copied into the array.
+	 * 
+	 * @param tokens
+	 *            Array[String] The tokens of the sentence
+	 * @param tags
+	 *            Array[String] The POS-tags of the sentence
+	 * @param normalize
+	 *            Boolean Whether to divide all scores by the largest absolute
+	 *            score
+	 * @param scores
+	 *            Array[Double] Receives the score of every axis, at least
+	 *            four long, at JOY_SADNESS, FEAR_ANGER, TRUST_DISGUST and
+	 *            SURPRISE_ANTICIPATION
+	 */
+	public void classify(String[] tokens, String[] tags, Boolean normalize,
+			double[] scores) throws Exception {
+		PatternIndex index = getModel().index;
+		ClassificationContext context = ClassificationContext.get();
+		if (cache != null) {
+			HashMap<String, Double> result = classify(index, context, tokens,
+					tags, normalize);
+			for (int a = 0; a < AXES.length; a++)
+				scores[a] = result.get(AXES[a]);
+			return;
 		}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newLeftflipPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < leftflipPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = leftflipPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newLeftflipPatterns.add(elem);
-			}
+		try {
+			System.arraycopy(
+					scoreSentence(index, context, tokens, tags, normalize), 0,
+					scores, 0, AXES.length);
+		} catch (Exception e) {
+			metrics.recordException(e);
+			throw e;
 		}
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newNeutralPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < neutralPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = neutralPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newNeutralPatterns.add(elem);
-			}
-		}
+	/**
+	 * Classifies many sentences in parallel on the pool of this classifier,
+	 * see setPool. All sentences are classified against the same model, even
+	 * if it is replaced in the meantime.
+	 * 
+	 * @param tokens
+	 *            List[Array[String]] The tokens of every sentence
+	 * @param tags
+	 *            List[Array[String]] The POS-tags of every sentence
+	 * @param normalize
+	 *            Boolean Whether to normalize the scores of every sentence
+	 * @return List[HashMap[String, Double]] The scores of every sentence, in
+	 *         the order of the sentences
+	 */
+	public List<HashMap<String, Double>> classifyBatch(List<String[]> tokens,
+			List<String[]> tags, final Boolean normalize) throws Exception {
+		return Batch.classify(pool, tokens, tags,
+				sentenceClassifier(getModel().index, normalize));
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newObjectivePatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < objectivePatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = objectivePatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newObjectivePatterns.add(elem);
-			}
-		}
+	/**
+	 * Classifies many sentences in parallel on the pool of this classifier
+	 * 
+	 * @param tokens
+	 *            Array[Array[String]] The tokens of every sentence
+	 * @param tags
+	 *            Array[Array[String]] The POS-tags of every sentence
+	 * @param normalize
+	 *            Boolean Whether to normalize the scores of every sentence
+	 * @return List[HashMap[String, Double]] The scores of every sentence, in
+	 *         the order of the sentences
+	 */
+	public List<HashMap<String, Double>> classifyBatch(String[][] tokens,
+			String[][] tags, Boolean normalize) throws Exception {
+		return classifyBatch(Arrays.asList(tokens), Arrays.asList(tags),
+				normalize);
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newRightflipPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < rightflipPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = rightflipPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newRightflipPatterns.add(elem);
-			}
-		}
+	/**
+	 * Classifies all sentences of a tagged corpus in parallel on the pool of
+	 * this classifier, reading and writing it as a stream so memory use does
+	 * not depend on the size of the corpus. See TaggedCorpusReader for the
+	 * format of the corpus. For every sentence a line holding the scores of
+	 * the joySadness, fearAnger, trustDisgust and surpriseAnticipation axes,
+	 * separated by tabs, is written in corpus order.
+	 * 
+	 * @param in
+	 *            InputStream The corpus
+	 * @param out
+	 *            OutputStream Receives the scores
+	 * @param normalize
+	 *            Boolean Whether to normalize the scores of every sentence
+	 * @param endTags
+	 *            String[] POS-tags that end a sentence
+	 * @return Long The number of sentences classified
+	 */
+	public long classifyCorpus(InputStream in, OutputStream out,
+			Boolean normalize, String... endTags) throws Exception {
+		return classifyCorpus(new TaggedCorpusReader(in, endTags),
+				CorpusPipeline.writer(out), normalize);
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newStopPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < stopPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = stopPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newStopPatterns.add(elem);
+	/**
+	 * Classifies all sentences of a tagged corpus file, see
+	 * classifyCorpus(InputStream, OutputStream, Boolean, String...)
+	 * 
+	 * @param in
+	 *            Path The corpus
+	 * @param out
+	 *            Path Receives the scores
+	 * @param normalize
+	 *            Boolean Whether to normalize the scores of every sentence
+	 * @param endTags
+	 *            String[] POS-tags that end a sentence
+	 * @return Long The number of sentences classified
+	 */
+	public long classifyCorpus(Path in, Path out, Boolean normalize,
+			String... endTags) throws Exception {
+		TaggedCorpusReader reader = new TaggedCorpusReader(in, endTags);
+		try {
+			Writer writer = CorpusPipeline.writer(Files.newOutputStream(out));
+			try {
+				return classifyCorpus(reader, writer, normalize);
+			} finally {
+				writer.close();
 			}
+		} finally {
+			reader.close();
 		}
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newJoyPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < joyPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = joyPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newJoyPatterns.add(elem);
-			}
-		}
+	private long classifyCorpus(TaggedCorpusReader reader, Writer out,
+			Boolean normalize) throws Exception {
+		return CorpusPipeline.run(pool, window, reader, out,
+				sentenceClassifier(getModel().index, normalize),
+				new CorpusPipeline.Format<HashMap<String, Double>>() {
+					public void write(HashMap<String, Double> result,
+							Writer out) throws IOException {
+						out.write(Double.toString(result.get("joySadness")));
+						out.write('\t');
+						out.write(Double.toString(result.get("fearAnger")));
+						out.write('\t');
+						out.write(Double.toString(result.get("trustDisgust")));
+						out.write('\t');
+						out.write(Double.toString(result
+								.get("surpriseAnticipation")));
+						out.write('\n');
+					}
+				});
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newSadnessPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < sadnessPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = sadnessPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newSadnessPatterns.add(elem);
-			}
-		}
+	/**
+	 * Creates a Flow.Processor that classifies tagged sentences on emotion
+	 * against the current model, in parallel on the pool of this classifier.
+	 * Results are published in the order of the sentences, and no more
+	 * sentences are requested than fit in the window, see setWindow.
+	 * 
+	 * @param normalize
+	 *            Boolean Whether to normalize the scores of every sentence
+	 * @return ClassificationProcessor The processor, publishing the scores of
+	 *         every sentence
+	 */
+	public ClassificationProcessor<HashMap<String, Double>> processor(
+			Boolean normalize) {
+		return new ClassificationProcessor<HashMap<String, Double>>(
+				sentenceClassifier(getModel().index, normalize), pool, window,
+				CorpusPipeline.CHUNK_SIZE);
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newFearPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < fearPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = fearPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newFearPatterns.add(elem);
-			}
-		}
+	/**
+	 * Classifies single sentences of a batch or corpus against a model
+	 */
+	private Batch.Classifier<HashMap<String, Double>> sentenceClassifier(
+			final PatternIndex index, final Boolean normalize) {
+		return new Batch.Classifier<HashMap<String, Double>>() {
+			public HashMap<String, Double> classify(
+					ClassificationContext context, String[] tokens,
+					String[] tags) throws Exception {
+				return RBEMEmotion.this.classify(index, context, tokens, tags,
+						normalize);
+			}
+		};
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newAngerPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < angerPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = angerPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newAngerPatterns.add(elem);
-			}
+	private HashMap<String, Double> classify(PatternIndex index,
+			ClassificationContext context, String[] tokens, String[] tags,
+			Boolean normalize) throws Exception {
+		try {
+			ResultCache<HashMap<String, Double>> cache = this.cache;
+			if (cache == null)
+				return classifySentence(index, context, tokens, tags, normalize);
+
+			// Results are shared, so only copies are handed out
+			int variant = normalize ? 1 : 0;
+			HashMap<String, Double> result = cache.get(index.generation,
+					tokens, tags, variant);
+			if (result == null) {
+				result = classifySentence(index, context, tokens, tags, normalize);
+				cache.put(index.generation, tokens, tags, variant,
+						new HashMap<String, Double>(result));
+				return result;
+			}
+			return new HashMap<String, Double>(result);
+		} catch (Exception e) {
+			metrics.recordException(e);
+			throw e;
 		}
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newTrustPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < trustPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = trustPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newTrustPatterns.add(elem);
-			}
-		}
+	private HashMap<String, Double> classifySentence(PatternIndex index,
+			ClassificationContext context, String[] tokens, String[] tags,
+			Boolean normalize) throws Exception {
+		return result(scoreSentence(index, context, tokens, tags, normalize));
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newDisgustPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < disgustPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = disgustPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newDisgustPatterns.add(elem);
-			}
-		}
+	private double[] scoreSentence(PatternIndex index,
+			ClassificationContext context, String[] tokens, String[] tags,
+			Boolean normalize) throws Exception {
+		ClassificationMetrics metrics = this.metrics;
+		boolean measured = metrics != ClassificationMetrics.NONE;
+		long time = measured ? System.nanoTime() : 0L;
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newSurprisePatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(stopPatterns);
-			pList.addAll(anticipationPatterns);
-			for (int i = 0; i < surprisePatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = surprisePatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newSurprisePatterns.add(elem);
-			}
-		}
+		// Create an RBEM vector of the input
+		EncodedSentence sentence = makeVector(index, context, tokens, tags);
+		if (measured)
+			time = lap(metrics, ClassificationMetrics.MAKE_VECTOR, time);
+		int length = sentence.length;
+
+		// Now we fetch all the patterns in one go and then remove the ones
+		// that are subsumed
+		PatternProfiler profiler = this.profiler;
+		PatternProfiler.Counts counts = null;
+		SpanMemo spanMemo = this.spanMemo;
+		if (profiler != null) {
+			counts = profiler.counts(index);
+			index.matchAll(sentence, context.matches, counts);
+		} else if (spanMemo != null)
+			spanMemo.matchAll(index, sentence, context.matches);
+		else
+			index.matchAll(sentence, context.matches);
+		if (measured)
+			time = lap(metrics, ClassificationMetrics.MATCHING, time);
+		Matches[] patterns = context.patterns(PATTERN_TYPES.length);
+		Subsumption.removeSubsumed(context.matches, patterns, strictSubsumption);
+		if (counts != null)
+			counts.kept(patterns);
+		if (measured)
+			time = lap(metrics, ClassificationMetrics.SUBSUMPTION, time);
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newAnticipationPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(joyPatterns);
-			pList.addAll(sadnessPatterns);
-			pList.addAll(fearPatterns);
-			pList.addAll(angerPatterns);
-			pList.addAll(trustPatterns);
-			pList.addAll(disgustPatterns);
-			pList.addAll(surprisePatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < anticipationPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = anticipationPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newAnticipationPatterns.add(elem);
-			}
+		// Commence the rule application
+		double[] emissions = applyRules(context, patterns, length);
+		if (measured) {
+			lap(metrics, ClassificationMetrics.RULES, time);
+			metrics.recordSentence(length);
+			for (int t = 0; t < PATTERN_TYPES.length; t++)
+				metrics.recordMatches(PATTERN_TYPES[t], patterns[t].size);
 		}
 
-		// Return all the non-subsumed patterns
-		HashMap<String, List<Triple<List<Pair<String, String>>, Integer, Integer>>> result = new HashMap<String, List<Triple<List<Pair<String, String>>, Integer, Integer>>>();
-		result.put("amplifiers", newAmplifierPatterns);
-		result.put("attenuators", newAttenuatorPatterns);
-		result.put("continuators", newContinuatorPatterns);
-		result.put("leftflips", newLeftflipPatterns);
-		result.put("neutrals", newNeutralPatterns);
-		result.put("objectives", newObjectivePatterns);
-		result.put("rightflips", newRightflipPatterns);
-		result.put("stops", newStopPatterns);
-		result.put("joy", newJoyPatterns);
-		result.put("sadness", newSadnessPatterns);
-		result.put("fear", newFearPatterns);
-		result.put("anger", newAngerPatterns);
-		result.put("trust", newTrustPatterns);
-		result.put("disgust", newDisgustPatterns);
-		result.put("surprise", newSurprisePatterns);
-		result.put("anticipation", newAnticipationPatterns);
-		return result;
+		return scores(emissions, context.axisSums, length, normalize);
 	}
 
 	/**
-	 * This is where the magic happens. An unlabeled sentence is classified on
-	 * polarity based on the model that is currently in memory
-	 * 
-	 * @param tokens
-	 * @param tags
-	 * @return
+	 * Computes the scores of a sentence from its emissions
+	 *
+	 * @param emissions
+	 *            Array[Double] The emission at every position for every axis,
+	 *            see applyRules
+	 * @param scores
+	 *            Array[Double] Receives the score of every axis, in the order
+	 *            of AXES
+	 * @param length
+	 *            Int The length of the sentence
+	 * @param normalize
+	 *            Boolean Whether to divide all scores by the largest absolute
+	 *            score
+	 * @return Array[Double] The scores
 	 */
-	public HashMap<String, Double> classify(String[] tokens, String[] tags,
-			Boolean normalize) throws Exception {
-		// Create an RBEM vector of the input
-		List<Pair<String, String>> sentence = makeVector(Arrays.asList(tokens),
-				Arrays.asList(tags));
-		// We have four different axes of emissions
-		String[] axes = { "joySadness", "fearAnger", "trustDisgust",
-				"surpriseAnticipation" };
-		HashMap<String, Double[]> emissions = new HashMap<String, Double[]>();
-		for (String axis : axes) {
-			Double[] ems = new Double[sentence.size()];
-			for (int i = 0; i < sentence.size(); i++)
-				ems[i] = 0.0;
-			emissions.put(axis, ems);
-		}
+	static double[] scores(double[] emissions, double[] scores, int length,
+			Boolean normalize) {
+		// Sum over axis scores
+		AxisKernel.get().sum(emissions, length, scores);
 
-		// Now we fetch all the patterns and then remove the ones that are
-		// subsumed
-		HashMap<String, List<Triple<List<Pair<String, String>>, Integer, Integer>>> patterns = removeSubsumed(
-				matchPatterns(sentence, "amplifiers"),
-				matchPatterns(sentence, "attenuators"),
-				matchPatterns(sentence, "continuators"),
-				matchPatterns(sentence, "leftflips"),
-				matchPatterns(sentence, "neutrals"),
-				matchPatterns(sentence, "objectives"),
-				matchPatterns(sentence, "rightflips"),
-				matchPatterns(sentence, "stops"),
-				matchPatterns(sentence, "joy"),
-				matchPatterns(sentence, "sadness"),
-				matchPatterns(sentence, "fear"),
-				matchPatterns(sentence, "anger"),
-				matchPatterns(sentence, "trust"),
-				matchPatterns(sentence, "disgust"),
-				matchPatterns(sentence, "surprise"),
-				matchPatterns(sentence, "anticipation"));
+		double maxScore = 0.0;
+		for (int a = 0; a < AXES.length; a++)
+			if (Math.abs(scores[a]) > maxScore)
+				maxScore = Math.abs(scores[a]);
 
-		// Commence the rule application
+		// Normalize if we have to
+		if (normalize && maxScore != 0.0)
+			for (int a = 0; a < AXES.length; a++)
+				scores[a] /= maxScore;
+		return scores;
+	}
 
-		// First set stops (stop and left flip patterns)
-		HashMap<Integer, Boolean> stops = new HashMap<Integer, Boolean>();
-		for (int i = 0; i < patterns.get("leftflips").size(); i++) {
-			int start = patterns.get("leftflips").get(i).getMiddle();
+	/**
+	 * @param scores
+	 *            Array[Double] The score of every axis, see scores
+	 * @return HashMap[String, Double] The score of every axis, by its name
+	 */
+	static HashMap<String, Double> result(double[] scores) {
+		HashMap<String, Double> result = new HashMap<String, Double>();
+		for (int a = 0; a < AXES.length; a++)
+			result.put(AXES[a], scores[a]);
+		return result;
+	}
 
-			// Add the stop pattern
-			stops.put(start, true);
-		}
-		for (int i = 0; i < patterns.get("stops").size(); i++) {
-			int start = patterns.get("stops").get(i).getMiddle();
+	/**
+	 * Records the time since a previous lap for a phase
+	 *
+	 * @return Long The current time, as System.nanoTime
+	 */
+	private static long lap(ClassificationMetrics metrics, int phase,
+			long since) {
+		long now = System.nanoTime();
+		metrics.recordPhase(phase, now - since);
+		return now;
+	}
 
-			// Add the stop pattern
-			stops.put(start, true);
-		}
+	/**
+	 * Applies the rules to the patterns found in a sentence, after subsumed
+	 * patterns are removed
+	 *
+	 * @param context
+	 *            ClassificationContext The context of the classifying thread
+	 * @param patterns
+	 *            Array[Matches] The patterns found, by pattern type
+	 * @param length
+	 *            Int The length of the sentence
+	 * @return Array[Double] The emission at every position of the sentence
+	 *         for every axis, the axes of a position next to each other in
+	 *         the order of AXES, see AxisKernel. Kept in the context.
+	 */
+	double[] applyRules(ClassificationContext context, Matches[] patterns,
+			int length) {
+		AxisKernel kernel = AxisKernel.get();
+		double[] emissions = context.axisEmissions(AxisKernel.LANES, length);
+
+		// First set stops (stop and left flip patterns)
+		long[] stops = context.stops(length);
+		for (int i = 0; i < patterns[LEFTFLIPS].size; i++)
+			EmissionKernel.addStop(stops, patterns[LEFTFLIPS].starts[i]);
+		for (int i = 0; i < patterns[STOPS].size; i++)
+			EmissionKernel.addStop(stops, patterns[STOPS].starts[i]);
 
 		// Continuators may remove stop patterns
-		for (int i = 0; i < patterns.get("continuators").size(); i++) {
-			int start = patterns.get("continuators").get(i).getMiddle();
+		for (int i = 0; i < patterns[CONTINUATORS].size; i++) {
+			int start = patterns[CONTINUATORS].starts[i];
 
 			// Find the stop pattern that is closest to the left of the
-			// continuator, if any
-			int maxPos = -1;
-			Boolean removeStop = false;
-			// Go through stops
-			for (int position : stops.keySet()) {
-				if (position < start && position > maxPos
-						&& position > start - emissionRange) {
-					maxPos = position;
-					removeStop = true;
-				}
-			}
-
-			// Remove the stop if required
-			if (removeStop)
-				stops.remove(maxPos);
-		}
-
-		// Joy emissions
-		for (int i = 0; i < patterns.get("joy").size(); i++) {
-			int start = patterns.get("joy").get(i).getMiddle();
-			int end = patterns.get("joy").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("joySadness").length)
-					emissions.get("joySadness")[center - j] += Math.exp(-j);
-				if (goRight && center + j < emissions.get("joySadness").length)
-					emissions.get("joySadness")[center + j] += Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
-
-		// Sadness emissions
-		for (int i = 0; i < patterns.get("sadness").size(); i++) {
-			int start = patterns.get("sadness").get(i).getMiddle();
-			int end = patterns.get("sadness").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("joySadness").length)
-					emissions.get("joySadness")[center - j] -= Math.exp(-j);
-				if (goRight && center + j < emissions.get("joySadness").length)
-					emissions.get("joySadness")[center + j] -= Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
-
-		// Fear emissions
-		for (int i = 0; i < patterns.get("fear").size(); i++) {
-			int start = patterns.get("fear").get(i).getMiddle();
-			int end = patterns.get("fear").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("fearAnger").length)
-					emissions.get("fearAnger")[center - j] += Math.exp(-j);
-				if (goRight && center + j < emissions.get("fearAnger").length)
-					emissions.get("fearAnger")[center + j] += Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
-
-		// Anger emissions
-		for (int i = 0; i < patterns.get("anger").size(); i++) {
-			int start = patterns.get("anger").get(i).getMiddle();
-			int end = patterns.get("anger").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("fearAnger").length)
-					emissions.get("fearAnger")[center - j] -= Math.exp(-j);
-				if (goRight && center + j < emissions.get("fearAnger").length)
-					emissions.get("fearAnger")[center + j] -= Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
-
-		// Trust emissions
-		for (int i = 0; i < patterns.get("trust").size(); i++) {
-			int start = patterns.get("trust").get(i).getMiddle();
-			int end = patterns.get("trust").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("trustDisgust").length)
-					emissions.get("trustDisgust")[center - j] += Math.exp(-j);
-				if (goRight
-						&& center + j < emissions.get("trustDisgust").length)
-					emissions.get("trustDisgust")[center + j] += Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
-
-		// Disgust emissions
-		for (int i = 0; i < patterns.get("disgust").size(); i++) {
-			int start = patterns.get("disgust").get(i).getMiddle();
-			int end = patterns.get("disgust").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("trustDisgust").length)
-					emissions.get("trustDisgust")[center - j] -= Math.exp(-j);
-				if (goRight
-						&& center + j < emissions.get("trustDisgust").length)
-					emissions.get("trustDisgust")[center + j] -= Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
-
-		// Surprise emissions
-		for (int i = 0; i < patterns.get("surprise").size(); i++) {
-			int start = patterns.get("surprise").get(i).getMiddle();
-			int end = patterns.get("surprise").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("surpriseAnticipation").length)
-					emissions.get("surpriseAnticipation")[center - j] += Math
-							.exp(-j);
-				if (goRight
-						&& center + j < emissions.get("surpriseAnticipation").length)
-					emissions.get("surpriseAnticipation")[center + j] += Math
-							.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
-
-		// Anticipation emissions
-		for (int i = 0; i < patterns.get("anticipation").size(); i++) {
-			int start = patterns.get("anticipation").get(i).getMiddle();
-			int end = patterns.get("anticipation").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("surpriseAnticipation").length)
-					emissions.get("surpriseAnticipation")[center - j] -= Math
-							.exp(-j);
-				if (goRight
-						&& center + j < emissions.get("surpriseAnticipation").length)
-					emissions.get("surpriseAnticipation")[center + j] -= Math
-							.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
+			// continuator, if any, and remove it
+			int stop = EmissionKernel.previousStop(stops, start - 1);
+			if (stop >= 0 && stop > start - emissionRange)
+				EmissionKernel.removeStop(stops, stop);
+		}
+
+		// Emotion emissions, the emotion types come in pairs of a positive
+		// and a negative emotion per axis, in the order of the axes. All
+		// patterns are weighed at their center and then emit in one go
+		double[] weights = context.weights(AxisKernel.LANES * length);
+		for (int a = 0; a < AXES.length; a++) {
+			Matches positives = patterns[JOY + 2 * a];
+			Matches negatives = patterns[JOY + 2 * a + 1];
+			for (int i = 0; i < positives.size; i++)
+				weights[AxisKernel.LANES
+						* EmissionKernel.center(positives.starts[i],
+								positives.ends[i]) + a] += 1.0;
+			for (int i = 0; i < negatives.size; i++)
+				weights[AxisKernel.LANES
+						* EmissionKernel.center(negatives.starts[i],
+								negatives.ends[i]) + a] -= 1.0;
+		}
+		kernel.emit(emissions, weights, stops, length, context.axisCarry);
 
 		// Remove emissions based on objective patterns
-		for (int i = 0; i < patterns.get("objectives").size(); i++) {
-			int start = patterns.get("objectives").get(i).getMiddle();
-			int end = patterns.get("objectives").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("joySadness").length) {
-					for (String axis : axes)
-						emissions.get(axis)[center - j] = 0.0;
-				}
-				if (goRight && center + j < emissions.get("joySadness").length) {
-					for (String axis : axes)
-						emissions.get(axis)[center + j] = 0.0;
-				}
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
+		for (int i = 0; i < patterns[OBJECTIVES].size; i++) {
+			int center = EmissionKernel.center(patterns[OBJECTIVES].starts[i],
+					patterns[OBJECTIVES].ends[i]);
+			kernel.cancel(emissions, EmissionKernel.left(stops, center, length),
+					EmissionKernel.right(stops, length, center, length));
 		}
 
 		// Amplifiers strengthen emissions
-		for (int i = 0; i < patterns.get("amplifiers").size(); i++) {
-			int start = patterns.get("amplifiers").get(i).getMiddle();
-			int end = patterns.get("amplifiers").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.min(emissionRange,
-					Math.max(center, tokens.length - center - 1)); j++) {
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("joySadness").length) {
-					for (String axis : axes)
-						emissions.get(axis)[center - j] *= 1 + Math.exp(-j);
-				}
-				if (goRight && center + j < emissions.get("joySadness").length) {
-					for (String axis : axes)
-						emissions.get(axis)[center + j] *= 1 + Math.exp(-j);
-				}
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
+		for (int i = 0; i < patterns[AMPLIFIERS].size; i++) {
+			int center = EmissionKernel.center(patterns[AMPLIFIERS].starts[i],
+					patterns[AMPLIFIERS].ends[i]);
+			kernel.amplify(emissions,
+					EmissionKernel.left(stops, center, emissionRange),
+					EmissionKernel.right(stops, length, center, emissionRange),
+					center);
 		}
 
 		// Attenuators weaken emissions
-		for (int i = 0; i < patterns.get("attenuators").size(); i++) {
-			int start = patterns.get("attenuators").get(i).getMiddle();
-			int end = patterns.get("attenuators").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.min(emissionRange,
-					Math.max(center, tokens.length - center - 1)); j++) {
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("joySadness").length) {
-					for (String axis : axes)
-						emissions.get(axis)[center - j] *= 1 - Math.exp(-j);
-				}
-				if (goRight && center + j < emissions.get("joySadness").length) {
-					for (String axis : axes)
-						emissions.get(axis)[center + j] *= 1 - Math.exp(-j);
-				}
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
+		for (int i = 0; i < patterns[ATTENUATORS].size; i++) {
+			int center = EmissionKernel.center(
+					patterns[ATTENUATORS].starts[i],
+					patterns[ATTENUATORS].ends[i]);
+			kernel.attenuate(emissions,
+					EmissionKernel.left(stops, center, emissionRange),
+					EmissionKernel.right(stops, length, center, emissionRange),
+					center);
 		}
 
 		// Flip the sign of emissions to the right
-		for (int i = 0; i < patterns.get("rightflips").size(); i++) {
-			int start = patterns.get("rightflips").get(i).getMiddle();
-			int end = patterns.get("rightflips").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goRight = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.min(emissionRange,
-					Math.max(center, tokens.length - center - 1)); j++) {
-				if (goRight && center + j < emissions.get("joySadness").length) {
-					for (String axis : axes)
-						emissions.get(axis)[center + j] *= -1;
-				}
-
-				// Stops
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
+		for (int i = 0; i < patterns[RIGHTFLIPS].size; i++) {
+			int center = EmissionKernel.center(patterns[RIGHTFLIPS].starts[i],
+					patterns[RIGHTFLIPS].ends[i]);
+			kernel.negate(emissions, center,
+					EmissionKernel.right(stops, length, center, emissionRange));
 		}
 
 		// Flip the sign of emissions to the left
-		for (int i = 0; i < patterns.get("leftflips").size(); i++) {
-			int start = patterns.get("leftflips").get(i).getMiddle();
-			int end = patterns.get("leftflips").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.min(emissionRange,
-					Math.max(center, tokens.length - center - 1)); j++) {
-				if (goLeft && j != 0 && center - j >= 0
-						&& j < emissions.get("joySadness").length) {
-					for (String axis : axes)
-						emissions.get(axis)[center - j] *= 1 - Math.exp(-j);
-				}
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-			}
+		for (int i = 0; i < patterns[LEFTFLIPS].size; i++) {
+			int center = EmissionKernel.center(patterns[LEFTFLIPS].starts[i],
+					patterns[LEFTFLIPS].ends[i]);
+			kernel.attenuate(emissions,
+					EmissionKernel.left(stops, center, emissionRange),
+					center - 1, center);
 		}
 
-		// Compute scores
-		HashMap<String, Double> scores = new HashMap<String, Double>();
-		Double maxScore = 0.0;
-		for (String axis : axes) {
-			// Sum over axis scores
-			Double score = 0.0;
-			for (Double em : emissions.get(axis))
-				score += em;
-			scores.put(axis, score);
-
-			if (Math.abs(score) > maxScore)
-				maxScore = Math.abs(score);
-		}
-
-		// Normalize if we have to
-		if (normalize && maxScore != 0.0) {
-			for (String axis : axes)
-				scores.put(axis, scores.get(axis) / maxScore);
-		}
-
-		return scores;
+		return emissions;
 	}
 
 	/**
@@ -1283,59 +617,141 @@ public class RBEMEmotion {
 		return classify(sentence.split(" "), tagLine.split(" "), normalize);
 	}
 
+	/**
+	 * Sets the pool that batches are classified on, the common pool by default
+	 * 
+	 * @param pool
+	 *            ForkJoinPool The pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the maximum number of sentences that are read ahead and being
+	 * classified at any time when classifying a corpus
+	 * 
+	 * @param window
+	 *            Integer The number of sentences
+	 */
+	public void setWindow(Integer window) {
+		this.window = window;
+	}
+
+	/**
+	 * Sets whether subsumed patterns are removed using strict semantics. By
+	 * default, legacy semantics are used where amplifiers are not subsumed by
+	 * other amplifiers, the attenuators also hold all other non-amplifier
+	 * patterns and are not subsumed by other attenuators, and a pattern is
+	 * only subsumed by a pattern ending after it. With strict semantics every
+	 * pattern type only holds its own patterns and a pattern is subsumed by
+	 * any longer pattern covering it.
+	 * 
+	 * @param strict
+	 *            Boolean Whether to use strict semantics
+	 */
+	public void setStrictSubsumption(Boolean strict) {
+		strictSubsumption = strict;
+		ResultCache<HashMap<String, Double>> cache = this.cache;
+		if (cache != null)
+			cache.clear();
+	}
+
+	/**
+	 * Enables caching the results of sentences, so that sentences seen
+	 * before, like retweets and templated messages, are not classified
+	 * again. See ResultCache.
+	 * 
+	 * @param capacity
+	 *            Integer The number of results to cache, 0 to stop caching
+	 */
+	public void setCache(Integer capacity) {
+		cache = capacity > 0 ? new ResultCache<HashMap<String, Double>>(capacity) : null;
+	}
+
+	/**
+	 * Enables remembering the pattern matches of spans of sentences, so that
+	 * sentences sharing long stretches with ones classified before, like
+	 * quotes, only have their new parts matched. See SpanMemo.
+	 * 
+	 * @param capacity
+	 *            Integer The number of spans to remember, 0 to stop
+	 */
+	public void setSpanMemo(Integer capacity) {
+		spanMemo = capacity > 0 ? new SpanMemo(capacity) : null;
+	}
+
+	/**
+	 * Gets the span memo, for its hit rate
+	 * 
+	 * @return SpanMemo The memo, null when not used
+	 */
+	public SpanMemo getSpanMemo() {
+		return spanMemo;
+	}
+
+	/**
+	 * Starts or stops profiling the patterns of the model, see
+	 * PatternProfiler
+	 * 
+	 * @param profiler
+	 *            PatternProfiler The profiler, null to stop profiling
+	 */
+	public void setProfiler(PatternProfiler profiler) {
+		this.profiler = profiler;
+	}
+
+	/**
+	 * Gets the pattern profiler
+	 * 
+	 * @return PatternProfiler The profiler, null when not profiling
+	 */
+	public PatternProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Sets where the measurements of classified sentences go, see
+	 * ClassificationMetrics
+	 * 
+	 * @param metrics
+	 *            ClassificationMetrics The metrics, null to stop measuring
+	 */
+	public void setMetrics(ClassificationMetrics metrics) {
+		this.metrics = metrics == null ? ClassificationMetrics.NONE : metrics;
+	}
+
+	/**
+	 * Gets where the measurements of classified sentences go
+	 * 
+	 * @return ClassificationMetrics The metrics, ClassificationMetrics.NONE
+	 *         when not measuring
+	 */
+	public ClassificationMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Gets the result cache, for its hit rate and other statistics
+	 * 
+	 * @return ResultCache The cache, null when not caching
+	 */
+	public ResultCache<HashMap<String, Double>> getCache() {
+		return cache;
+	}
+
 	/**
 	 * Adds a pattern to the currently loaded model
 	 * 
 	 * @param patternType
 	 * @param pattern
 	 */
-	public Boolean addPattern(String patternType,
+	public synchronized Boolean addPattern(String patternType,
 			List<Pair<String, String>> pattern) {
-		// Check if this type of pattern is allowed
-		String[] allowedPatterns = { "amplifiers", "attenuators",
-				"continuators", "leftflips", "neutrals", "objectives",
-				"rightflips", "stops", "joy", "sadness", "fear", "anger",
-				"trust", "disgust", "surprise", "anticipation" };
-
-		Boolean found = false;
-		for (String allowedPattern : allowedPatterns) {
-			if (patternType.equals(allowedPattern))
-				found = true;
-		}
-		if (!found)
-			return false; // Illegal pattern type
-		else {
-			if (pattern.size() > 0) {
-				// Index is computed on first element
-				String firstIndex = pattern.get(0).getLeft().trim()
-						.toLowerCase()
-						+ pattern.get(0).getRight().trim();
-				// Now the total index
-				String totalIndex = "";
-				for (Pair<String, String> member : pattern)
-					totalIndex += member.getLeft().trim().toLowerCase()
-							+ member.getRight().trim();
-
-				// We may need to initialize
-				if (!model.get(patternType).containsKey(firstIndex))
-					model.get(patternType)
-							.put(firstIndex,
-									new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
-				if (!model.get(patternType).get(firstIndex)
-						.containsKey(pattern.size()))
-					model.get(patternType)
-							.get(firstIndex)
-							.put(pattern.size(),
-									new HashMap<String, List<Pair<String, String>>>());
-
-				// Finally, add the pattern
-				model.get(patternType).get(firstIndex).get(pattern.size())
-						.put(totalIndex, pattern);
-
-				return true;
-			} else
-				return false;
-		}
+		Boolean added = editableModel().addPattern(patternType, pattern);
+		if (added)
+			stale = true;
+		return added;
 	}
 
 	/**
@@ -1343,189 +759,68 @@ public class RBEMEmotion {
 	 * 
 	 * @param language
 	 */
-	public void loadModel(String language) {
+	public synchronized void loadModel(String language) {
 		if (this.getClass().getResource("/" + language + ".rbeme") != null) {
-			try {
-				// Stream JSON since loading it into memory is too
-				// memory-intensive
-				JsonFactory jFactory = new JsonFactory();
-				JsonParser jParser = jFactory.createJsonParser(this.getClass()
-						.getResourceAsStream("/" + language + ".rbeme"));
-
-				// Continue until we find the end object
-				while (jParser.nextToken() != JsonToken.END_OBJECT) {
-					// Get the field name
-					String patternType = jParser.getCurrentName();
-					if (model.keySet().contains(patternType)) {
-						jParser.nextToken();
-
-						// Keep on going until we find the inner object's end
-						while (jParser.nextToken() != JsonToken.END_OBJECT) {
-							String firstIndex = jParser.getCurrentName();
-							jParser.nextToken();
-
-							// The length
-							while (jParser.nextToken() != JsonToken.END_OBJECT) {
-								String length = jParser.getCurrentName();
-								jParser.nextToken();
-
-								// Full indexes
-								while (jParser.nextToken() != JsonToken.END_OBJECT) {
-									String fullIndex = jParser.getCurrentName();
-									jParser.nextToken();
-
-									// Patterns
-									while (jParser.nextToken() != JsonToken.END_ARRAY) {
-										// Pattern members
-										String token = null;
-										String tag = null;
-										while (jParser.nextToken() != JsonToken.END_OBJECT) {
-											String fieldName = jParser
-													.getCurrentName();
-											jParser.nextToken();
-
-											// Can either be token or tag
-											if (fieldName.equals("token"))
-												token = jParser.getText();
-											else if (fieldName.equals("tag"))
-												tag = jParser.getText();
-										}
-
-										// Add pattern member
-										if (token != null && tag != null) {
-											// Initialize index
-											if (!model.get(patternType)
-													.containsKey(firstIndex))
-												model.get(patternType)
-														.put(firstIndex,
-																new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
-											// Initialize length
-											if (!model
-													.get(patternType)
-													.get(firstIndex)
-													.containsKey(
-															Integer.parseInt(length)))
-												model.get(patternType)
-														.get(firstIndex)
-														.put(Integer
-																.parseInt(length),
-																new HashMap<String, List<Pair<String, String>>>());
-											// Initialize full index
-											if (!model
-													.get(patternType)
-													.get(firstIndex)
-													.get(Integer
-															.parseInt(length))
-													.containsKey(fullIndex))
-												model.get(patternType)
-														.get(firstIndex)
-														.get(Integer
-																.parseInt(length))
-														.put(fullIndex,
-																new LinkedList<Pair<String, String>>());
-
-											// Add the member
-											model.get(patternType)
-													.get(firstIndex)
-													.get(Integer
-															.parseInt(length))
-													.get(fullIndex)
-													.add(new ImmutablePair<String, String>(
-															token, tag));
-										} else
-											jParser.nextToken();
-									}
-								}
-							}
-						}
-					}
-				}
+			editableModel().loadModel(language);
 
-			} catch (Exception e) {
-				System.out.println("Unable to load model");
-				e.printStackTrace();
-			}
+			// From now on the compiled model is all we keep
+			model.set(builder.build());
+			builder = null;
+			stale = false;
 		}
 	}
 
+	/**
+	 * Loads a model stored in the binary model format, replacing the current
+	 * model. See RBEMModel.map.
+	 * 
+	 * @param file
+	 *            Path The model file
+	 * @return Boolean Whether the model was loaded, false if it is not an emotion
+	 *         model
+	 */
+	public Boolean loadBinaryModel(Path file) throws IOException {
+		return setModel(RBEMModel.map(file));
+	}
+
 	/**
 	 * Stores a model into a language-specific file
 	 * 
 	 * @param language
 	 */
-	public void storeModel(String language) {
-		// Stores the model
-		try {
-			// Initialize output JSON
-			JSONObject output = new JSONObject();
-
-			// Go through our model
-			// HashMap<String, HashMap<String, HashMap<Integer, HashMap<String,
-			// List<Pair<String, String>>>>>>
-			for (Entry<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> e1 : model
-					.entrySet()) {
-				String patternType = e1.getKey();
-				HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> fullPatterns = e1
-						.getValue();
-
-				// Go through the fullPatterns list
-				JSONObject fullPatternJson = new JSONObject();
-				for (Entry<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> e2 : fullPatterns
-						.entrySet()) {
-					String patternIndex = e2.getKey();
-					HashMap<Integer, HashMap<String, List<Pair<String, String>>>> patternLengths = e2
-							.getValue();
-
-					// Go through the lengths and patterns in there
-					JSONObject lengthJson = new JSONObject();
-					for (Entry<Integer, HashMap<String, List<Pair<String, String>>>> e3 : patternLengths
-							.entrySet()) {
-						Integer length = e3.getKey();
-						HashMap<String, List<Pair<String, String>>> patterns = e3
-								.getValue();
-
-						// Go through subindex and pattern members
-						JSONObject subIndexedJson = new JSONObject();
-						for (Entry<String, List<Pair<String, String>>> e4 : patterns
-								.entrySet()) {
-							String index = e4.getKey();
-							List<Pair<String, String>> patternMembers = e4
-									.getValue();
-
-							// Go through all members
-							JSONArray memberJson = new JSONArray();
-							for (Pair<String, String> member : patternMembers) {
-								String token = member.getLeft();
-								String tag = member.getRight();
-
-								memberJson.put(new JSONObject().put("token",
-										token).put("tag", tag));
-							}
-
-							// Add to our JSON
-							subIndexedJson.put(index, memberJson);
-						}
-						// Add to JSON
-						lengthJson.put(length.toString(), subIndexedJson);
-					}
-					// Add to JSON
-					fullPatternJson.put(patternIndex, lengthJson);
-				}
-				// Add to JSON
-				output.put(patternType, fullPatternJson);
-			}
+	public synchronized void storeModel(String language) {
+		editableModel().storeModel(language);
+	}
 
-			// Write to model file
-			File modelFile = new File("src/main/resources/" + language
-					+ ".rbeme");
-			BufferedWriter br = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(modelFile), "UTF8"));
-			br.write(output.toString());
-			br.flush();
-			br.close();
-		} catch (Exception e) {
-			System.out.println("Unable to store model");
-			e.printStackTrace();
-		}
+	/**
+	 * Stores the model in a file as JSON, replacing the file as a whole once
+	 * the model is written
+	 * 
+	 * @param file
+	 *            Path The file to store the model in
+	 */
+	public synchronized void storeModel(Path file) throws IOException {
+		editableModel().storeModel(file);
+	}
+
+	/**
+	 * Stores the model in a stream as JSON, generating it while going through
+	 * the model
+	 * 
+	 * @param out
+	 *            OutputStream The stream to write to, it is not closed
+	 */
+	public synchronized void storeModel(OutputStream out) throws IOException {
+		editableModel().storeModel(out);
+	}
+
+	/**
+	 * Stores the model in the binary model format, see loadBinaryModel
+	 * 
+	 * @param file
+	 *            Path The file to store the model in
+	 */
+	public void storeBinaryModel(Path file) throws IOException {
+		getModel().store(file);
 	}
 }
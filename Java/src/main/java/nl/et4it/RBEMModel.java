@@ -0,0 +1,71 @@
+package nl.et4it;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * An immutable, compiled RBEM model as RBEMPolarity and RBEMEmotion classify
+ * against. Nothing about a model changes once it is built, so any number of
+ * threads can classify against the same model without locking. Models are
+ * built with an RBEMModelBuilder, or read back from the binary model format
+ * with map.
+ */
+public final class RBEMModel {
+	// Extension of the model files, rbemp for polarity and rbeme for emotion
+	final String extension;
+	// The compiled patterns and their symbols
+	final PatternIndex index;
+
+	RBEMModel(String extension, PatternIndex index) {
+		this.extension = extension;
+		this.index = index;
+	}
+
+	/**
+	 * @return Int The number of patterns in the model
+	 */
+	public int size() {
+		return index.size;
+	}
+
+	/**
+	 * Writes the model in the binary model format, see RBEMModelFormat
+	 * 
+	 * @param out
+	 *            OutputStream The stream to write to, it is not closed
+	 */
+	public void store(OutputStream out) throws IOException {
+		RBEMModelFormat.write(this, out);
+	}
+
+	/**
+	 * Writes the model to a file in the binary model format. The file is
+	 * replaced as a whole once the model is written, see AtomicFile.
+	 * 
+	 * @param file
+	 *            Path The file to write to
+	 */
+	public void store(Path file) throws IOException {
+		AtomicFile.write(file, new AtomicFile.Content() {
+			public void writeTo(OutputStream out) throws IOException {
+				store(out);
+			}
+		});
+	}
+
+	/**
+	 * Reads a model from a file in the binary model format. The file is
+	 * memory-mapped and the compiled model is copied out of it as a whole,
+	 * no pattern is parsed.
+	 * 
+	 * @param file
+	 *            Path The model file
+	 * @return RBEMModel The model
+	 * @throws IOException
+	 *             If the file is not a model of this version or is corrupt
+	 */
+	public static RBEMModel map(Path file) throws IOException {
+		return RBEMModelFormat.map(file);
+	}
+}
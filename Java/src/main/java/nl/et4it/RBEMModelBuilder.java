@@ -0,0 +1,371 @@
+package nl.et4it;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * The mutable side of an RBEM model: patterns are loaded and added here, after
+ * which build() compiles them into an immutable RBEMModel to classify against.
+ * A builder is not thread-safe, the models it builds are.
+ */
+public class RBEMModelBuilder {
+	/*
+	 * This is the actual model of the algorithm, it's kept in-memory for fast
+	 * access
+	 * 
+	 * It works with indexing as follows:
+	 * 
+	 * The first key is the pattern type, then for each pattern type: The next
+	 * key is the pattern itself, defined by a concatenation of the first word
+	 * and POS-tag pair of the pattern, then for each such pattern: The next key
+	 * is the actual length (number of (word, POS-tag)-pairs of the pattern,
+	 * then for each pattern of such length: The next key is the complete
+	 * concatenation of the pattern's (word, POS-tag) pairs, finally: A list of
+	 * actual (word, POS-tag)-pairs, in-order as a List whose size is always 2
+	 */
+	HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> model = new HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>>();
+	// The pattern types the model knows of
+	final String[] patternTypes;
+	// Extension of the model files, rbemp for polarity and rbeme for emotion
+	final String extension;
+
+	RBEMModelBuilder(String[] patternTypes, String extension) {
+		this.patternTypes = patternTypes;
+		this.extension = extension;
+
+		// Initialize the model
+		for (String patternType : patternTypes)
+			model.put(
+					patternType,
+					new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
+	}
+
+	/**
+	 * Creates a builder holding all patterns of a compiled model, to add
+	 * patterns to it or to store it
+	 * 
+	 * @param snapshot
+	 *            RBEMModel The compiled model
+	 */
+	public RBEMModelBuilder(RBEMModel snapshot) {
+		this.patternTypes = snapshot.index.patternTypes;
+		this.extension = snapshot.extension;
+		this.model = snapshot.index.toModel();
+	}
+
+	/**
+	 * Compiles the patterns currently in the builder. Later changes to the
+	 * builder do not affect the compiled model.
+	 * 
+	 * @return RBEMModel The compiled model
+	 */
+	public RBEMModel build() {
+		return new RBEMModel(extension, PatternIndex.compile(patternTypes,
+				model));
+	}
+
+	/**
+	 * Compiles the patterns currently in the builder against symbol tables
+	 * shared with other models, see PatternIndex.compile
+	 */
+	RBEMModel build(SymbolTable sharedTokens, SymbolTable sharedTags) {
+		return new RBEMModel(extension, PatternIndex.compile(patternTypes,
+				model, sharedTokens, sharedTags));
+	}
+
+	/**
+	 * Adds a pattern to the model
+	 * 
+	 * @param patternType
+	 * @param pattern
+	 */
+	public Boolean addPattern(String patternType,
+			List<Pair<String, String>> pattern) {
+		// Check if this type of pattern is allowed
+		Boolean found = false;
+		for (String allowedPattern : patternTypes) {
+			if (patternType.equals(allowedPattern))
+				found = true;
+		}
+		if (!found)
+			return false; // Illegal pattern type
+		else {
+			if (pattern.size() > 0) {
+				// Index is computed on first element
+				String firstIndex = pattern.get(0).getLeft().trim()
+						.toLowerCase()
+						+ pattern.get(0).getRight().trim();
+				// Now the total index
+				String totalIndex = "";
+				for (Pair<String, String> member : pattern)
+					totalIndex += member.getLeft().trim().toLowerCase()
+							+ member.getRight().trim();
+
+				// We may need to initialize
+				if (!model.get(patternType).containsKey(firstIndex))
+					model.get(patternType)
+							.put(firstIndex,
+									new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
+				if (!model.get(patternType).get(firstIndex)
+						.containsKey(pattern.size()))
+					model.get(patternType)
+							.get(firstIndex)
+							.put(pattern.size(),
+									new HashMap<String, List<Pair<String, String>>>());
+
+				// Finally, add the pattern
+				model.get(patternType).get(firstIndex).get(pattern.size())
+						.put(totalIndex, pattern);
+
+				return true;
+			} else
+				return false;
+		}
+	}
+
+	/**
+	 * Loads the patterns of a model for a given language, adding them to the
+	 * patterns already present
+	 * 
+	 * @param language
+	 */
+	public void loadModel(String language) {
+		if (this.getClass().getResource("/" + language + "." + extension) != null) {
+			try {
+				// Stream JSON since loading it into memory is too
+				// memory-intensive
+				JsonFactory jFactory = new JsonFactory();
+				JsonParser jParser = jFactory.createJsonParser(this.getClass()
+						.getResourceAsStream("/" + language + "." + extension));
+
+				// Continue until we find the end object
+				while (jParser.nextToken() != JsonToken.END_OBJECT) {
+					// Get the field name
+					String patternType = jParser.getCurrentName();
+					if (model.keySet().contains(patternType)) {
+						jParser.nextToken();
+						loadPatterns(jParser, model.get(patternType));
+					}
+				}
+
+			} catch (Exception e) {
+				System.out.println("Unable to load model");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Loads the patterns of a single pattern type, adding them to the given
+	 * patterns of that type
+	 * 
+	 * @param jParser
+	 *            JsonParser The parser, positioned at the start of the object
+	 *            holding the patterns of the type
+	 * @param patterns
+	 *            HashMap The patterns of the type, as kept in the model
+	 */
+	static void loadPatterns(
+			JsonParser jParser,
+			HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> patterns)
+			throws IOException {
+		// Keep on going until we find the inner object's end
+		while (jParser.nextToken() != JsonToken.END_OBJECT) {
+			String firstIndex = jParser.getCurrentName();
+			jParser.nextToken();
+
+			// The length
+			while (jParser.nextToken() != JsonToken.END_OBJECT) {
+				Integer length = Integer.valueOf(jParser.getCurrentName());
+				jParser.nextToken();
+
+				// Full indexes
+				while (jParser.nextToken() != JsonToken.END_OBJECT) {
+					String fullIndex = jParser.getCurrentName();
+					jParser.nextToken();
+
+					// Patterns
+					while (jParser.nextToken() != JsonToken.END_ARRAY) {
+						// Pattern members
+						String token = null;
+						String tag = null;
+						while (jParser.nextToken() != JsonToken.END_OBJECT) {
+							String fieldName = jParser.getCurrentName();
+							jParser.nextToken();
+
+							// Can either be token or tag
+							if (fieldName.equals("token"))
+								token = jParser.getText();
+							else if (fieldName.equals("tag"))
+								tag = jParser.getText();
+						}
+
+						// Add pattern member
+						if (token != null && tag != null) {
+							// Initialize index
+							if (!patterns.containsKey(firstIndex))
+								patterns.put(
+										firstIndex,
+										new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
+							// Initialize length
+							if (!patterns.get(firstIndex).containsKey(length))
+								patterns.get(firstIndex)
+										.put(length,
+												new HashMap<String, List<Pair<String, String>>>());
+							// Initialize full index
+							if (!patterns.get(firstIndex).get(length)
+									.containsKey(fullIndex))
+								patterns.get(firstIndex)
+										.get(length)
+										.put(fullIndex,
+												new LinkedList<Pair<String, String>>());
+
+							// Add the member
+							patterns.get(firstIndex)
+									.get(length)
+									.get(fullIndex)
+									.add(new ImmutablePair<String, String>(
+											token, tag));
+						} else
+							jParser.nextToken();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds patterns of a single pattern type that were loaded separately, see
+	 * RBEMModelLoader
+	 * 
+	 * @param patternType
+	 *            String The pattern type
+	 * @param patterns
+	 *            HashMap The patterns, as kept in the model
+	 */
+	void addPatterns(
+			String patternType,
+			HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> patterns) {
+		HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> present = model
+				.get(patternType);
+		if (present == null)
+			return;
+		if (present.isEmpty()) {
+			model.put(patternType, patterns);
+			return;
+		}
+		for (Entry<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> first : patterns
+				.entrySet()) {
+			if (!present.containsKey(first.getKey()))
+				present.put(first.getKey(),
+						new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
+			for (Entry<Integer, HashMap<String, List<Pair<String, String>>>> length : first
+					.getValue().entrySet()) {
+				if (!present.get(first.getKey()).containsKey(length.getKey()))
+					present.get(first.getKey()).put(length.getKey(),
+							new HashMap<String, List<Pair<String, String>>>());
+				present.get(first.getKey()).get(length.getKey())
+						.putAll(length.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Stores a model into a language-specific file
+	 * 
+	 * @param language
+	 */
+	public void storeModel(String language) {
+		// Stores the model
+		try {
+			storeModel(Paths.get("src/main/resources/" + language + "."
+					+ extension));
+		} catch (Exception e) {
+			System.out.println("Unable to store model");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stores the model in a file, as loadModel reads it. The file is replaced
+	 * as a whole once the model is written, see AtomicFile.
+	 * 
+	 * @param file
+	 *            Path The file to store the model in
+	 */
+	public void storeModel(Path file) throws IOException {
+		AtomicFile.write(file, new AtomicFile.Content() {
+			public void writeTo(OutputStream out) throws IOException {
+				storeModel(out);
+			}
+		});
+	}
+
+	/**
+	 * Stores the model in a stream as JSON, as loadModel reads it. The JSON
+	 * is generated while going through the model, it is never held in memory
+	 * as a whole.
+	 * 
+	 * @param out
+	 *            OutputStream The stream to write to, it is not closed
+	 */
+	public void storeModel(OutputStream out) throws IOException {
+		JsonGenerator jGenerator = new JsonFactory().createJsonGenerator(out,
+				JsonEncoding.UTF8);
+		jGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+		// Go through our model
+		jGenerator.writeStartObject();
+		for (Entry<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> e1 : model
+				.entrySet()) {
+			jGenerator.writeObjectFieldStart(e1.getKey());
+
+			// Go through the fullPatterns list
+			for (Entry<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> e2 : e1
+					.getValue().entrySet()) {
+				jGenerator.writeObjectFieldStart(e2.getKey());
+
+				// Go through the lengths and patterns in there
+				for (Entry<Integer, HashMap<String, List<Pair<String, String>>>> e3 : e2
+						.getValue().entrySet()) {
+					jGenerator.writeObjectFieldStart(e3.getKey().toString());
+
+					// Go through subindex and pattern members
+					for (Entry<String, List<Pair<String, String>>> e4 : e3
+							.getValue().entrySet()) {
+						jGenerator.writeArrayFieldStart(e4.getKey());
+
+						// Go through all members
+						for (Pair<String, String> member : e4.getValue()) {
+							jGenerator.writeStartObject();
+							jGenerator.writeStringField("token",
+									member.getLeft());
+							jGenerator.writeStringField("tag", member.getRight());
+							jGenerator.writeEndObject();
+						}
+						jGenerator.writeEndArray();
+					}
+					jGenerator.writeEndObject();
+				}
+				jGenerator.writeEndObject();
+			}
+			jGenerator.writeEndObject();
+		}
+		jGenerator.writeEndObject();
+		jGenerator.close();
+	}
+}
@@ -0,0 +1,140 @@
+package nl.et4it;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The binary model format, holding a compiled model exactly as it is kept in
+ * memory so it can be read back without parsing any pattern.
+ *
+ * A file starts with the magic bytes "RBEM" and the format version, followed
+ * by the extension of the model and its PatternIndex: the pattern types, the
+ * token and tag symbols, the pattern pool, the ranges and the map of first
+ * members. Every number is a big-endian int or long, every string an int
+ * length followed by as many UTF-8 bytes. The file ends with the CRC32 of
+ * everything before it.
+ */
+final class RBEMModelFormat {
+	static final int MAGIC = 0x5242454d;
+	static final int VERSION = 1;
+
+	private RBEMModelFormat() {
+	}
+
+	/**
+	 * Writes a model
+	 *
+	 * @param model
+	 *            RBEMModel The model
+	 * @param out
+	 *            OutputStream The stream to write to, it is not closed
+	 */
+	static void write(RBEMModel model, OutputStream out) throws IOException {
+		BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+		CRC32 checksum = new CRC32();
+		DataOutputStream data = new DataOutputStream(new CheckedOutputStream(
+				buffered, checksum));
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		writeString(data, model.extension);
+		model.index.write(data);
+		data.flush();
+
+		// The checksum does not cover itself
+		new DataOutputStream(buffered).writeInt((int) checksum.getValue());
+		buffered.flush();
+	}
+
+	/**
+	 * Maps a model file into memory and reads the model from it
+	 *
+	 * @param file
+	 *            Path The model file
+	 * @return RBEMModel The model
+	 */
+	static RBEMModel map(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					0, channel.size());
+			return read(buffer);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Reads a model, checking its version and checksum first
+	 *
+	 * @param buffer
+	 *            ByteBuffer The model, from its position up to its limit
+	 * @return RBEMModel The model
+	 */
+	static RBEMModel read(ByteBuffer buffer) throws IOException {
+		ByteBuffer in = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+		if (in.remaining() < 12 || in.getInt(0) != MAGIC)
+			throw new IOException("Not an RBEM model");
+		if (in.getInt(4) != VERSION)
+			throw new IOException("Unsupported RBEM model version "
+					+ in.getInt(4) + ", expected " + VERSION);
+
+		int end = in.limit() - 4;
+		ByteBuffer payload = in.duplicate();
+		payload.limit(end);
+		CRC32 checksum = new CRC32();
+		checksum.update(payload);
+		if ((int) checksum.getValue() != in.getInt(end))
+			throw new IOException("Corrupt RBEM model, checksum mismatch");
+
+		in.position(8);
+		in.limit(end);
+		try {
+			String extension = readString(in);
+			return new RBEMModel(extension, PatternIndex.read(in));
+		} catch (RuntimeException e) {
+			throw new IOException("Corrupt RBEM model", e);
+		}
+	}
+
+	static void writeString(DataOutputStream out, String string)
+			throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	static void writeInts(DataOutputStream out, int[] values, int length)
+			throws IOException {
+		out.writeInt(length);
+		for (int i = 0; i < length; i++)
+			out.writeInt(values[i]);
+	}
+
+	/**
+	 * Reads an array written by writeInts, copying it out of the buffer in
+	 * bulk
+	 */
+	static int[] readInts(ByteBuffer in) {
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + 4 * values.length);
+		return values;
+	}
+}
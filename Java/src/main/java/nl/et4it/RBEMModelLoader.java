@@ -0,0 +1,236 @@
+package nl.et4it;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Loads the models of several languages and classifiers at the same time,
+ * such as en_UK, nl_NL and de_DE for both RBEMPolarity and RBEMEmotion at
+ * startup.
+ *
+ * Every model resource is read into memory and cut into its pattern types,
+ * which are parsed in parallel, so even a single large model is spread over
+ * the executor. The parsed pattern types are then merged and compiled, and
+ * the classifier is handed out through a future once its model is in place.
+ * How long every model took to load is kept in getLoadTimes.
+ */
+public class RBEMModelLoader {
+	private final Executor executor;
+	private final JsonFactory jFactory = new JsonFactory();
+	// Milliseconds every model took to load, by resource name
+	private final Map<String, Long> loadTimes = Collections
+			.synchronizedMap(new LinkedHashMap<String, Long>());
+
+	/**
+	 * Creates a loader running on the common ForkJoinPool
+	 */
+	public RBEMModelLoader() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a loader
+	 *
+	 * @param executor
+	 *            Executor The executor to read, parse and compile the models
+	 *            on
+	 */
+	public RBEMModelLoader(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Loads the polarity model of a language
+	 *
+	 * @param language
+	 *            String The language, like en_UK
+	 * @return CompletableFuture[RBEMPolarity] A classifier holding the model,
+	 *         failing if the model is not present or cannot be parsed
+	 */
+	public CompletableFuture<RBEMPolarity> loadPolarity(String language) {
+		return load(language, RBEMPolarity.modelBuilder()).thenApply(
+				new Function<RBEMModel, RBEMPolarity>() {
+					public RBEMPolarity apply(RBEMModel model) {
+						RBEMPolarity polarity = new RBEMPolarity();
+						polarity.setModel(model);
+						return polarity;
+					}
+				});
+	}
+
+	/**
+	 * Loads the emotion model of a language
+	 *
+	 * @param language
+	 *            String The language, like en_UK
+	 * @return CompletableFuture[RBEMEmotion] A classifier holding the model,
+	 *         failing if the model is not present or cannot be parsed
+	 */
+	public CompletableFuture<RBEMEmotion> loadEmotion(String language) {
+		return load(language, RBEMEmotion.modelBuilder()).thenApply(
+				new Function<RBEMModel, RBEMEmotion>() {
+					public RBEMEmotion apply(RBEMModel model) {
+						RBEMEmotion emotion = new RBEMEmotion();
+						emotion.setModel(model);
+						return emotion;
+					}
+				});
+	}
+
+	/**
+	 * Gets how long the models loaded so far took, from reading their
+	 * resource up to having compiled them
+	 *
+	 * @return Map[String, Long] The milliseconds every model took, by resource
+	 *         name like en_UK.rbemp, in the order they finished
+	 */
+	public Map<String, Long> getLoadTimes() {
+		synchronized (loadTimes) {
+			return new LinkedHashMap<String, Long>(loadTimes);
+		}
+	}
+
+	private CompletableFuture<RBEMModel> load(String language,
+			final RBEMModelBuilder builder) {
+		final String resource = language + "." + builder.extension;
+		final long start = System.nanoTime();
+
+		// Read the resource and cut it into pattern types
+		return CompletableFuture.supplyAsync(new Supplier<List<Section>>() {
+			public List<Section> get() {
+				try {
+					return split(resource, builder.patternTypes);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, executor).thenCompose(
+				new Function<List<Section>, CompletableFuture<RBEMModel>>() {
+					public CompletableFuture<RBEMModel> apply(
+							final List<Section> sections) {
+						// Parse the pattern types in parallel
+						CompletableFuture<?>[] parsed = new CompletableFuture<?>[sections
+								.size()];
+						for (int i = 0; i < parsed.length; i++) {
+							final Section section = sections.get(i);
+							parsed[i] = CompletableFuture.runAsync(
+									new Runnable() {
+										public void run() {
+											try {
+												section.parse(jFactory);
+											} catch (IOException e) {
+												throw new CompletionException(
+														e);
+											}
+										}
+									}, executor);
+						}
+
+						// Merge and compile once all are parsed
+						return CompletableFuture.allOf(parsed).thenApplyAsync(
+								new Function<Void, RBEMModel>() {
+									public RBEMModel apply(Void done) {
+										for (Section section : sections)
+											builder.addPatterns(
+													section.patternType,
+													section.patterns);
+										RBEMModel model = builder.build();
+										loadTimes.put(resource,
+												(System.nanoTime() - start) / 1000000);
+										return model;
+									}
+								}, executor);
+					}
+				});
+	}
+
+	/**
+	 * Reads a model resource and finds where the patterns of every known
+	 * pattern type are, without parsing them
+	 */
+	private List<Section> split(String resource, String[] patternTypes)
+			throws IOException {
+		InputStream in = getClass().getResourceAsStream("/" + resource);
+		if (in == null)
+			throw new IOException("No model " + resource);
+		byte[] json;
+		try {
+			json = in.readAllBytes();
+		} finally {
+			in.close();
+		}
+
+		List<Section> sections = new ArrayList<Section>();
+		JsonParser jParser = jFactory.createJsonParser(json);
+		try {
+			if (jParser.nextToken() != JsonToken.START_OBJECT)
+				throw new IOException("Model " + resource
+						+ " is not a JSON object");
+			while (jParser.nextToken() == JsonToken.FIELD_NAME) {
+				String patternType = jParser.getCurrentName();
+				JsonToken value = jParser.nextToken();
+				// Parsers over bytes count their offsets in bytes, as chars
+				int from = (int) jParser.getCurrentLocation().getCharOffset();
+				jParser.skipChildren();
+				int to = (int) jParser.getTokenLocation().getCharOffset() + 1;
+				if (value == JsonToken.START_OBJECT
+						&& Arrays.asList(patternTypes).contains(patternType)) {
+					if (json[from] != '{' || json[to - 1] != '}')
+						throw new IOException("Unable to split model " + resource);
+					sections.add(new Section(patternType, json, from, to));
+				}
+			}
+		} finally {
+			jParser.close();
+		}
+		return sections;
+	}
+
+	/**
+	 * The patterns of one pattern type, first as the JSON they are read from
+	 * and then as parsed
+	 */
+	private static class Section {
+		final String patternType;
+		final byte[] json;
+		final int from;
+		final int to;
+		final HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> patterns = new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>();
+
+		Section(String patternType, byte[] json, int from, int to) {
+			this.patternType = patternType;
+			this.json = json;
+			this.from = from;
+			this.to = to;
+		}
+
+		void parse(JsonFactory jFactory) throws IOException {
+			JsonParser jParser = jFactory.createJsonParser(json, from, to
+					- from);
+			try {
+				jParser.nextToken();
+				RBEMModelBuilder.loadPatterns(jParser, patterns);
+			} finally {
+				jParser.close();
+			}
+		}
+	}
+}
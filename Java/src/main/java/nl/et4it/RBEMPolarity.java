@@ -1,826 +1,527 @@
 package nl.et4it;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.tuple.ImmutablePair;
-import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.apache.commons.lang3.tuple.Pair;
-import org.apache.commons.lang3.tuple.Triple;
-import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.JsonToken;
-import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONObject;
 
 public class RBEMPolarity {
-	/*
-	 * This is the actual model of the algorithm, it's kept in-memory for fast
-	 * access
-	 * 
-	 * It works with indexing as follows:
-	 * 
-	 * The first key is the pattern type, then for each pattern type: The next
-	 * key is the pattern itself, defined by a concatenation of the first word
-	 * and POS-tag pair of the pattern, then for each such pattern: The next key
-	 * is the actual length (number of (word, POS-tag)-pairs of the pattern,
-	 * then for each pattern of such length: The next key is the complete
-	 * concatenation of the pattern's (word, POS-tag) pairs, finally: A list of
-	 * actual (word, POS-tag)-pairs, in-order as a List whose size is always 2
-	 */
-	HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> model = new HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>>();
 	Integer emissionRange = 3;
+	// Whether subsumed patterns are removed using strict instead of legacy
+	// semantics, see Subsumption
+	Boolean strictSubsumption = false;
+	// The pattern types this model knows of
+	static final String[] PATTERN_TYPES = { "amplifiers", "attenuators",
+			"continuators", "leftflips", "negatives", "neutrals", "objectives",
+			"positives", "rightflips", "stops" };
+	// Identifiers of the pattern types, their position in PATTERN_TYPES
+	static final int AMPLIFIERS = 0;
+	static final int ATTENUATORS = 1;
+	static final int CONTINUATORS = 2;
+	static final int LEFTFLIPS = 3;
+	static final int NEGATIVES = 4;
+	static final int NEUTRALS = 5;
+	static final int OBJECTIVES = 6;
+	static final int POSITIVES = 7;
+	static final int RIGHTFLIPS = 8;
+	static final int STOPS = 9;
+	// The pool batches are classified on
+	ForkJoinPool pool = ForkJoinPool.commonPool();
+	// The maximum number of sentences in flight when classifying a corpus
+	Integer window = 4096;
+	// Results of sentences classified before, null when not caching
+	volatile ResultCache<Pair<String, Double>> cache = null;
+	// Matches of spans of sentences classified before, null when not used
+	volatile SpanMemo spanMemo = null;
+	// Counts how every pattern fares, null when not profiling
+	volatile PatternProfiler profiler = null;
+	// Receives the measurements of classified sentences
+	volatile ClassificationMetrics metrics = ClassificationMetrics.NONE;
+	// The compiled model all classification is done against. It is never
+	// modified, only replaced as a whole
+	final AtomicReference<RBEMModel> model = new AtomicReference<RBEMModel>();
+	// Holds the patterns while they are being added to, null when there are
+	// no changes since the model was last published
+	RBEMModelBuilder builder = null;
+	// Whether the builder holds changes that are not published yet
+	volatile boolean stale = false;
 
 	public RBEMPolarity() {
 		// Initialize the model
-		model.put(
-				"amplifiers",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"attenuators",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"continuators",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"leftflips",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"negatives",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"neutrals",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"objectives",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"positives",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"rightflips",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
-		model.put(
-				"stops",
-				new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
+		model.set(modelBuilder().build());
 	}
 
 	/**
-	 * Given a set of words and POS-tag, this function makes a list that can be
-	 * used directly by RBEM
+	 * Creates an empty builder for polarity models
 	 * 
-	 * @param words
-	 *            List<String> The words
-	 * @param tags
-	 *            List<String> The POS-tags
-	 * @return List<List<String>> The vector
+	 * @return RBEMModelBuilder The builder
 	 */
-	private List<Pair<String, String>> makeVector(List<String> words,
-			List<String> tags) throws Exception {
-		// See if there is an equal numebr of words and tags
-		if (words.size() != tags.size())
-			throw new Exception(
-					"The number of words is unequal to the number of POS-tags");
-
-		// Result list
-		List<Pair<String, String>> vector = new ArrayList<Pair<String, String>>();
-		// Go through words and tags
-		for (int i = 0; i < words.size(); i++)
-			vector.add(new ImmutablePair<String, String>(words.get(i)
-					.toLowerCase(), tags.get(i)));
-
-		// Return the vector
-		return vector;
+	public static RBEMModelBuilder modelBuilder() {
+		return new RBEMModelBuilder(PATTERN_TYPES, "rbemp");
 	}
 
 	/**
-	 * Matches a single pattern for which there is clue it might potentially
-	 * occur within the sentence
+	 * Gets the model that is currently classified against, publishing any
+	 * added patterns first
 	 * 
-	 * @param sentence
-	 *            List[(String, String)] The remaining sentence that needs to be
-	 *            processed, represented as (token, tag) pairs
-	 * @param pattern
-	 *            List[(String, String)] The remaining pattern that needs to be
-	 *            processed, represented as (token, tag) pairs
-	 * @param offset
-	 *            Int The current offset, the position within the sentence we
-	 *            are at
-	 * @param (Boolean, Int) A tuple indicating first whether the pattern was
-	 *        found or not and the end position of the pattern We do not return
-	 *        the starting position because the initial call to this function
-	 *        will know (in offset) the starting position
+	 * @return RBEMModel The model
 	 */
-	private Pair<Boolean, Integer> matchPattern(
-			List<Pair<String, String>> sentence,
-			List<Pair<String, String>> pattern, int offset) {
-		if (pattern.isEmpty() || offset > 500) {
-			// Found the right pattern, return where we found it
-			return new ImmutablePair<Boolean, Integer>(true, offset - 1);
-		} else {
-			// Get the first pair of word, POS-tag that we need to match
-			Pair<String, String> member = pattern.get(0);
-			// Pattern is not depleted yet, maybe sentence is though
-			if (sentence.isEmpty()) {
-				// Sentence is depleted, we failed to match our pattern
-				return new ImmutablePair<Boolean, Integer>(false, -1);
-			} else {
-				// Get the token and tag of the current sentence member
-				String sToken = sentence.get(0).getLeft();
-				String sTag = sentence.get(0).getRight();
-
-				// Get the sentence that is yet to be parsed as well as the
-				// pattern yet to be parsed
-				List<Pair<String, String>> remainingSentence = sentence
-						.subList(1, sentence.size());
-				List<Pair<String, String>> remainingPattern = pattern.subList(
-						1, pattern.size());
-
-				// We need to traverse further based on our pattern member
-				if (member.getLeft().equals("*")
-						&& member.getRight().equals("*")) {
-					// We are dealing with a multi-position wildcard here
-					if (!remainingSentence.isEmpty()) {
-						if (remainingPattern.isEmpty()) {
-							// Pattern wasn't found
-							return new ImmutablePair<Boolean, Integer>(false,
-									-1);
-						} else {
-							// Since we are dealing with a wild-card, we need to
-							// peek forward
-							Pair<String, String> nextPatternMember = remainingPattern
-									.get(0);
-							Pair<String, String> nextSentenceMember = remainingSentence
-									.get(0);
-
-							// Check for match
-							if ((nextPatternMember.getLeft().equals(
-									nextSentenceMember.getLeft()) && nextPatternMember
-									.getRight().equals(
-											nextSentenceMember.getRight()))
-									|| (nextPatternMember.getLeft().equals("_") && nextPatternMember
-											.getRight().equals(
-													nextSentenceMember
-															.getRight()))
-									|| (nextPatternMember.getLeft().equals(
-											sToken) && nextPatternMember
-											.getRight().equals(sTag))
-									|| (nextPatternMember.getLeft().equals("_") && nextPatternMember
-											.getRight().equals(sTag))) {
-								// Next also matches, shift by 2
-								return matchPattern(remainingSentence.subList(
-										1, remainingSentence.size()),
-										remainingPattern.subList(1,
-												remainingPattern.size()),
-										offset + 2);
-							} else {
-								// No direct match, maybe next element
-								return matchPattern(remainingSentence, pattern,
-										offset + 1);
-							}
-						}
-					} else
-						return new ImmutablePair<Boolean, Integer>(false, -1);
-				} else if (member.getLeft().equals("_")
-						&& member.getRight().equals("_")) {
-					// Single-position wildcard
-					return matchPattern(remainingSentence, remainingPattern,
-							offset + 1);
-				} else if (member.getLeft().equals("_")
-						&& member.getRight().equals(member.getRight())) {
-					// Just match the tag
-					if (sTag.equals(member.getRight())) {
-						// Match, continue
-						return matchPattern(remainingSentence,
-								remainingPattern, offset + 1);
-					} else
-						return new ImmutablePair<Boolean, Integer>(false, -1);
-				} else {
-					// Regular match, check if current pairs match
-					if (sToken.equals(member.getLeft())
-							&& sTag.equals(member.getRight())) {
-						// Match, continue
-						return matchPattern(remainingSentence,
-								remainingPattern, offset + 1);
-					} else
-						return new ImmutablePair<Boolean, Integer>(false, -1);
-				}
-			}
-		}
+	public RBEMModel getModel() {
+		return stale ? publish() : model.get();
 	}
 
 	/**
-	 * Matches patterns of a given pattern type against a sentence
+	 * Replaces the model that is classified against. Classifications that are
+	 * already running finish on the model they started with.
 	 * 
-	 * @param sentence
-	 *            List[(String, String)] The sentence represented as a list of
-	 *            (token, tag) tuples
-	 * @param patternType
-	 *            String The pattern type to match the known patterns of
-	 * @return List[(List[(String, String)], Int, Int)] A list containing all
-	 *         matched patterns as (token, tag) pairs and their respective start
-	 *         and end positions within the sentence
+	 * @param snapshot
+	 *            RBEMModel The new model
+	 * @return Boolean Whether the model was replaced, false if it is not a
+	 *         polarity model
 	 */
-	private List<Triple<List<Pair<String, String>>, Integer, Integer>> matchPatterns(
-			List<Pair<String, String>> sentence, String patternType) {
-		// This will return all our patterns found, together with start- and
-		// end-index
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> foundPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
+	public synchronized Boolean setModel(RBEMModel snapshot) {
+		if (!Arrays.equals(snapshot.index.patternTypes, PATTERN_TYPES))
+			return false;
+		builder = null;
+		stale = false;
+		model.set(snapshot);
+		return true;
+	}
 
-		// Since the model is highly indexed, we iterate through the sentence
-		// and match it against our model
-		List<Pair<String, String>> runningSentence = sentence;
-		for (int i = 0; i < sentence.size(); i++) {
-			// Get the current pair
-			Pair<String, String> tuple = sentence.get(i);
-			// Compute first index, concatenation of word and POS-tag, taking
-			// the possibility of a wildcard into account
-			String firstIndex = tuple.getLeft() + tuple.getRight();
-			String firstIndexWildcard = "_" + tuple.getRight();
+	/**
+	 * Compiles the patterns in the builder and publishes them as the model
+	 * that is classified against
+	 */
+	private synchronized RBEMModel publish() {
+		if (builder != null && stale) {
+			model.set(builder.build());
+			stale = false;
+		}
+		return model.get();
+	}
 
-			// Match the regular pattern
-			if (model.get(patternType).containsKey(firstIndex)) {
-				// We are dealing with a regulard index (word AND pos-tag
-				// given), find all matches
-				for (Entry<Integer, HashMap<String, List<Pair<String, String>>>> entry1 : model
-						.get(patternType).get(firstIndex).entrySet()) {
-					// Get length and the patterns present in this pattern group
-					HashMap<String, List<Pair<String, String>>> patterns = entry1
-							.getValue();
-					// Now get all the patterns of this length
-					for (Entry<String, List<Pair<String, String>>> entry2 : patterns
-							.entrySet()) {
-						// Get the full index of the pattern and the pattern
-						// itself
-						List<Pair<String, String>> pattern = entry2.getValue();
+	/**
+	 * Gets the builder to add patterns to, holding the patterns of the
+	 * current model
+	 */
+	private RBEMModelBuilder editableModel() {
+		if (builder == null)
+			builder = new RBEMModelBuilder(model.get());
+		return builder;
+	}
 
-						// Do a match
-						Pair<Boolean, Integer> pFound = matchPattern(
-								runningSentence, pattern, i);
-						// If we found a pattern, we ought to return it
-						if (pFound.getLeft()) {
-							// Add it
-							foundPatterns
-									.add(new ImmutableTriple<List<Pair<String, String>>, Integer, Integer>(
-											pattern, i, pFound.getRight()));
-						}
-					}
-				}
-			}
-			// Now do the same for the wildcard first-index
-			if (model.get(patternType).containsKey(firstIndexWildcard)) {
-				for (Entry<Integer, HashMap<String, List<Pair<String, String>>>> entry1 : model
-						.get(patternType).get(firstIndexWildcard).entrySet()) {
-					// Get length and the patterns present in this pattern group
-					HashMap<String, List<Pair<String, String>>> patterns = entry1
-							.getValue();
-					// Now get all the patterns of this length
-					for (Entry<String, List<Pair<String, String>>> entry2 : patterns
-							.entrySet()) {
-						// Get the full index of the pattern and the pattern
-						// itself
-						List<Pair<String, String>> pattern = entry2.getValue();
+	/**
+	 * Given a set of words and POS-tag, this function makes a vector that can
+	 * be used directly by RBEM: the lowercased words and the POS-tags encoded
+	 * against the symbols of the model
+	 * 
+	 * @param index
+	 *            PatternIndex The compiled model
+	 * @param context
+	 *            ClassificationContext The context to encode the sentence in
+	 * @param words
+	 *            String[] The words
+	 * @param tags
+	 *            String[] The POS-tags
+	 * @return EncodedSentence The vector
+	 */
+	private EncodedSentence makeVector(PatternIndex index,
+			ClassificationContext context, String[] words, String[] tags)
+			throws Exception {
+		context.sentence.encode(index.tokenSymbols, index.tagSymbols, words,
+				tags);
+		return context.sentence;
+	}
 
-						// Do a match
-						Pair<Boolean, Integer> pFound = matchPattern(
-								runningSentence, pattern, i);
-						// If we found a pattern, we ought to return it
-						if (pFound.getLeft()) {
-							// Add it
-							foundPatterns
-									.add(new ImmutableTriple<List<Pair<String, String>>, Integer, Integer>(
-											pattern, i, pFound.getRight()));
-						}
-					}
-				}
-			}
+	/**
+	 * This is where the magic happens. An unlabeled sentence is classified on
+	 * polarity based on the model that is currently in memory. Any number of
+	 * threads can classify at the same time.
+	 * 
+	 * @param tokens
+	 * @param tags
+	 * @return
+	 */
+	public Pair<String, Double> classify(String[] tokens, String[] tags)
+			throws Exception {
+		return classify(getModel().index, ClassificationContext.get(), tokens,
+				tags);
+	}
 
-			// Move sliding window of running sentence
-			runningSentence = runningSentence
-					.subList(1, runningSentence.size());
+	/**
+	 * Classifies a sentence like classify(tokens, tags), but writes the label
+	 * and score into a holder instead of returning a new Pair, so nothing is
+	 * allocated, boxed or compared as a string. When a result cache is set
+	 * the result comes from the cache and is copied into the holder.
+	 * 
+	 * @param tokens
+	 *            Array[String] The tokens of the sentence
+	 * @param tags
+	 *            Array[String] The POS-tags of the sentence
+	 * @param result
+	 *            PolarityResult Receives the label and score
+	 */
+	public void classify(String[] tokens, String[] tags, PolarityResult result)
+			throws Exception {
+		PatternIndex index = getModel().index;
+		ClassificationContext context = ClassificationContext.get();
+		if (cache != null) {
+			result.set(classify(index, context, tokens, tags).getRight());
+			return;
 		}
 
-		return foundPatterns;
+		try {
+			result.set(scoreSentence(index, context, tokens, tags));
+		} catch (Exception e) {
+			metrics.recordException(e);
+			throw e;
+		}
 	}
 
 	/**
-	 * Checks if a pattern - based on its start and end positions - is subsumed
-	 * within another
+	 * Classifies many sentences in parallel on the pool of this classifier,
+	 * see setPool. All sentences are classified against the same model, even
+	 * if it is replaced in the meantime.
 	 * 
-	 * @param start
-	 *            Int The starting position of the pattern
-	 * @param end
-	 *            Int The ending position of the pattern
-	 * @param patternList
-	 *            List[(List[(String, String)], Int, Int)] The list of patterns
-	 *            to match against
+	 * @param tokens
+	 *            List[Array[String]] The tokens of every sentence
+	 * @param tags
+	 *            List[Array[String]] The POS-tags of every sentence
+	 * @return List[Pair[String, Double]] The label and score of every
+	 *         sentence, in the order of the sentences
 	 */
-	private Boolean isNotSubsumed(
-			Integer start,
-			Integer end,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> patternList) {
-		if (patternList.isEmpty())
-			return true;
-
-		Boolean result = true;
-		// Go through all patterns to find subsumed ones
-		for (int i = 0; i < patternList.size(); i++) {
-			Integer matchStart = patternList.get(i).getMiddle();
-			Integer matchEnd = patternList.get(i).getRight();
-
-			// Check the offsets
-			if (matchStart <= start && matchEnd > end) {
-				// SUbsumed
-				result = false;
-				break;
-			}
-		}
-		return result;
+	public List<Pair<String, Double>> classifyBatch(List<String[]> tokens,
+			List<String[]> tags) throws Exception {
+		return Batch.classify(pool, tokens, tags,
+				sentenceClassifier(getModel().index));
 	}
 
 	/**
-	 * Removes all patterns that are somehow subsumed by other patterns
+	 * Classifies many sentences in parallel on the pool of this classifier
+	 * 
+	 * @param tokens
+	 *            Array[Array[String]] The tokens of every sentence
+	 * @param tags
+	 *            Array[Array[String]] The POS-tags of every sentence
+	 * @return List[Pair[String, Double]] The label and score of every
+	 *         sentence, in the order of the sentences
 	 */
-	private HashMap<String, List<Triple<List<Pair<String, String>>, Integer, Integer>>> removeSubsumed(
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> amplifierPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> attenuatorPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> continuatorPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> leftflipPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> negativePatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> neutralPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> objectivePatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> positivePatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> rightflipPatterns,
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> stopPatterns) {
+	public List<Pair<String, Double>> classifyBatch(String[][] tokens,
+			String[][] tags) throws Exception {
+		return classifyBatch(Arrays.asList(tokens), Arrays.asList(tags));
+	}
 
-		// TODO: Make this bit tidier
-		// Go through the patterns per group and see whether they are contained
-		// within another pattern or not (yeah it's ugly)
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newAmplifierPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = attenuatorPatterns;
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < amplifierPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = amplifierPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newAmplifierPatterns.add(elem);
-			}
-		}
+	/**
+	 * Classifies all sentences of a tagged corpus in parallel on the pool of
+	 * this classifier, reading and writing it as a stream so memory use does
+	 * not depend on the size of the corpus. See TaggedCorpusReader for the
+	 * format of the corpus. For every sentence a line holding its label and
+	 * score, separated by a tab, is written in corpus order.
+	 * 
+	 * @param in
+	 *            InputStream The corpus
+	 * @param out
+	 *            OutputStream Receives the labels and scores
+	 * @param endTags
+	 *            String[] POS-tags that end a sentence
+	 * @return Long The number of sentences classified
+	 */
+	public long classifyCorpus(InputStream in, OutputStream out,
+			String... endTags) throws Exception {
+		return classifyCorpus(new TaggedCorpusReader(in, endTags),
+				CorpusPipeline.writer(out));
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newAttenuatorPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < attenuatorPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = attenuatorPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newAttenuatorPatterns.add(elem);
+	/**
+	 * Classifies all sentences of a tagged corpus file, see
+	 * classifyCorpus(InputStream, OutputStream, String...)
+	 * 
+	 * @param in
+	 *            Path The corpus
+	 * @param out
+	 *            Path Receives the labels and scores
+	 * @param endTags
+	 *            String[] POS-tags that end a sentence
+	 * @return Long The number of sentences classified
+	 */
+	public long classifyCorpus(Path in, Path out, String... endTags)
+			throws Exception {
+		TaggedCorpusReader reader = new TaggedCorpusReader(in, endTags);
+		try {
+			Writer writer = CorpusPipeline.writer(Files.newOutputStream(out));
+			try {
+				return classifyCorpus(reader, writer);
+			} finally {
+				writer.close();
 			}
+		} finally {
+			reader.close();
 		}
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newContinuatorPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < continuatorPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = continuatorPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newContinuatorPatterns.add(elem);
-			}
-		}
+	private long classifyCorpus(TaggedCorpusReader reader, Writer out)
+			throws Exception {
+		return CorpusPipeline.run(pool, window, reader, out,
+				sentenceClassifier(getModel().index),
+				new CorpusPipeline.Format<Pair<String, Double>>() {
+					public void write(Pair<String, Double> result, Writer out)
+							throws IOException {
+						out.write(result.getLeft());
+						out.write('\t');
+						out.write(Double.toString(result.getRight()));
+						out.write('\n');
+					}
+				});
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newLeftflipPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < leftflipPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = leftflipPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newLeftflipPatterns.add(elem);
-			}
-		}
+	/**
+	 * Creates a Flow.Processor that classifies tagged sentences on polarity
+	 * against the current model, in parallel on the pool of this classifier.
+	 * Results are published in the order of the sentences, and no more
+	 * sentences are requested than fit in the window, see setWindow.
+	 * 
+	 * @return ClassificationProcessor The processor, publishing the label and
+	 *         score of every sentence
+	 */
+	public ClassificationProcessor<Pair<String, Double>> processor() {
+		return new ClassificationProcessor<Pair<String, Double>>(
+				sentenceClassifier(getModel().index), pool, window,
+				CorpusPipeline.CHUNK_SIZE);
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newNegativePatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < negativePatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = negativePatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newNegativePatterns.add(elem);
+	/**
+	 * Classifies single sentences of a batch or corpus against a model
+	 */
+	private Batch.Classifier<Pair<String, Double>> sentenceClassifier(
+			final PatternIndex index) {
+		return new Batch.Classifier<Pair<String, Double>>() {
+			public Pair<String, Double> classify(
+					ClassificationContext context, String[] tokens,
+					String[] tags) throws Exception {
+				return RBEMPolarity.this.classify(index, context, tokens, tags);
 			}
-		}
+		};
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newNeutralPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < neutralPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = neutralPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newNeutralPatterns.add(elem);
+	private Pair<String, Double> classify(PatternIndex index,
+			ClassificationContext context, String[] tokens, String[] tags)
+			throws Exception {
+		try {
+			ResultCache<Pair<String, Double>> cache = this.cache;
+			if (cache == null)
+				return classifySentence(index, context, tokens, tags);
+
+			Pair<String, Double> result = cache.get(index.generation, tokens,
+					tags, 0);
+			if (result == null) {
+				result = classifySentence(index, context, tokens, tags);
+				cache.put(index.generation, tokens, tags, 0, result);
 			}
+			return result;
+		} catch (Exception e) {
+			metrics.recordException(e);
+			throw e;
 		}
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newObjectivePatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < objectivePatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = objectivePatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newObjectivePatterns.add(elem);
-			}
-		}
+	private Pair<String, Double> classifySentence(PatternIndex index,
+			ClassificationContext context, String[] tokens, String[] tags)
+			throws Exception {
+		return result(scoreSentence(index, context, tokens, tags));
+	}
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newPositivePatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(rightflipPatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < positivePatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = positivePatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newPositivePatterns.add(elem);
-			}
-		}
+	private double scoreSentence(PatternIndex index,
+			ClassificationContext context, String[] tokens, String[] tags)
+			throws Exception {
+		ClassificationMetrics metrics = this.metrics;
+		boolean measured = metrics != ClassificationMetrics.NONE;
+		long time = measured ? System.nanoTime() : 0L;
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newRightflipPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(stopPatterns);
-			for (int i = 0; i < rightflipPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = rightflipPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newRightflipPatterns.add(elem);
-			}
-		}
+		// Create an RBEM vector of the input
+		EncodedSentence sentence = makeVector(index, context, tokens, tags);
+		if (measured)
+			time = lap(metrics, ClassificationMetrics.MAKE_VECTOR, time);
+		int length = sentence.length;
+
+		// Now we fetch all the patterns in one go and then remove the ones
+		// that are subsumed
+		PatternProfiler profiler = this.profiler;
+		PatternProfiler.Counts counts = null;
+		SpanMemo spanMemo = this.spanMemo;
+		if (profiler != null) {
+			counts = profiler.counts(index);
+			index.matchAll(sentence, context.matches, counts);
+		} else if (spanMemo != null)
+			spanMemo.matchAll(index, sentence, context.matches);
+		else
+			index.matchAll(sentence, context.matches);
+		if (measured)
+			time = lap(metrics, ClassificationMetrics.MATCHING, time);
+		Matches[] patterns = context.patterns(PATTERN_TYPES.length);
+		Subsumption.removeSubsumed(context.matches, patterns, strictSubsumption);
+		if (counts != null)
+			counts.kept(patterns);
+		if (measured)
+			time = lap(metrics, ClassificationMetrics.SUBSUMPTION, time);
 
-		List<Triple<List<Pair<String, String>>, Integer, Integer>> newStopPatterns = new ArrayList<Triple<List<Pair<String, String>>, Integer, Integer>>();
-		{
-			List<Triple<List<Pair<String, String>>, Integer, Integer>> pList = amplifierPatterns;
-			pList.addAll(attenuatorPatterns);
-			pList.addAll(continuatorPatterns);
-			pList.addAll(leftflipPatterns);
-			pList.addAll(negativePatterns);
-			pList.addAll(neutralPatterns);
-			pList.addAll(objectivePatterns);
-			pList.addAll(positivePatterns);
-			pList.addAll(rightflipPatterns);
-			for (int i = 0; i < stopPatterns.size(); i++) {
-				Triple<List<Pair<String, String>>, Integer, Integer> elem = stopPatterns
-						.get(i);
-				if (isNotSubsumed(elem.getMiddle(), elem.getRight(), pList))
-					newStopPatterns.add(elem);
-			}
+		// Commence the rule application
+		double[] emissions = applyRules(context, patterns, length);
+		if (measured) {
+			lap(metrics, ClassificationMetrics.RULES, time);
+			metrics.recordSentence(length);
+			for (int t = 0; t < PATTERN_TYPES.length; t++)
+				metrics.recordMatches(PATTERN_TYPES[t], patterns[t].size);
 		}
 
-		// Return all the non-subsumed patterns
-		HashMap<String, List<Triple<List<Pair<String, String>>, Integer, Integer>>> result = new HashMap<String, List<Triple<List<Pair<String, String>>, Integer, Integer>>>();
-		result.put("amplifiers", newAmplifierPatterns);
-		result.put("attenuators", newAttenuatorPatterns);
-		result.put("continuators", newContinuatorPatterns);
-		result.put("leftflips", newLeftflipPatterns);
-		result.put("negatives", newNegativePatterns);
-		result.put("neutrals", newNeutralPatterns);
-		result.put("objectives", newObjectivePatterns);
-		result.put("positives", newPositivePatterns);
-		result.put("rightflips", newRightflipPatterns);
-		result.put("stops", newStopPatterns);
-		return result;
+		return score(emissions, length);
 	}
 
 	/**
-	 * This is where the magic happens. An unlabeled sentence is classified on
-	 * polarity based on the model that is currently in memory
-	 * 
-	 * @param tokens
-	 * @param tags
-	 * @return
+	 * Computes the score of a sentence from its emissions
+	 *
+	 * @param emissions
+	 *            Array[Double] The emission at every position, see applyRules
+	 * @param length
+	 *            Int The length of the sentence
+	 * @return Double The score
 	 */
-	public Pair<String, Double> classify(String[] tokens, String[] tags)
-			throws Exception {
-		// Create an RBEM vector of the input
-		List<Pair<String, String>> sentence = makeVector(Arrays.asList(tokens),
-				Arrays.asList(tags));
-		// For each element of our vector, we need to keep track of the
-		// emissions
-		Double[] emissions = new Double[sentence.size()];
-		for (int i = 0; i < sentence.size(); i++)
-			emissions[i] = 0.0;
+	static double score(double[] emissions, int length) {
+		double score = 0.0;
+		for (int i = 0; i < length; i++)
+			score += emissions[i];
+		return score;
+	}
 
-		// Now we fetch all the patterns and then remove the ones that are
-		// subsumed
-		HashMap<String, List<Triple<List<Pair<String, String>>, Integer, Integer>>> patterns = removeSubsumed(
-				matchPatterns(sentence, "amplifiers"),
-				matchPatterns(sentence, "attenuators"),
-				matchPatterns(sentence, "continuators"),
-				matchPatterns(sentence, "leftflips"),
-				matchPatterns(sentence, "negatives"),
-				matchPatterns(sentence, "neutrals"),
-				matchPatterns(sentence, "objectives"),
-				matchPatterns(sentence, "positives"),
-				matchPatterns(sentence, "rightflips"),
-				matchPatterns(sentence, "stops"));
+	/**
+	 * @param score
+	 *            Double The score of a sentence, see score
+	 * @return Pair[String, Double] The label and the score
+	 */
+	static Pair<String, Double> result(double score) {
+		String label = "neutral";
+		if (score > 0)
+			label = "positive";
+		if (score < 0)
+			label = "negative";
 
-		// Commence the rule application
+		return new ImmutablePair<String, Double>(label, score);
+	}
 
-		// First set stops (stop and left flip patterns)
-		HashMap<Integer, Boolean> stops = new HashMap<Integer, Boolean>();
-		for (int i = 0; i < patterns.get("leftflips").size(); i++) {
-			int start = patterns.get("leftflips").get(i).getMiddle();
+	/**
+	 * Records the time since a previous lap for a phase
+	 *
+	 * @return Long The current time, as System.nanoTime
+	 */
+	private static long lap(ClassificationMetrics metrics, int phase,
+			long since) {
+		long now = System.nanoTime();
+		metrics.recordPhase(phase, now - since);
+		return now;
+	}
 
-			// Add the stop pattern
-			stops.put(start, true);
-		}
-		for (int i = 0; i < patterns.get("stops").size(); i++) {
-			int start = patterns.get("stops").get(i).getMiddle();
+	/**
+	 * Applies the rules to the patterns found in a sentence, after subsumed
+	 * patterns are removed
+	 *
+	 * @param context
+	 *            ClassificationContext The context of the classifying thread
+	 * @param patterns
+	 *            Array[Matches] The patterns found, by pattern type
+	 * @param length
+	 *            Int The length of the sentence
+	 * @return Array[Double] The emission at every position of the sentence,
+	 *         kept in the context
+	 */
+	double[] applyRules(ClassificationContext context, Matches[] patterns,
+			int length) {
+		double[] emissions = context.emissions(1, length)[0];
 
-			// Add the stop pattern
-			stops.put(start, true);
-		}
+		// First set stops (stop and left flip patterns)
+		long[] stops = context.stops(length);
+		for (int i = 0; i < patterns[LEFTFLIPS].size; i++)
+			EmissionKernel.addStop(stops, patterns[LEFTFLIPS].starts[i]);
+		for (int i = 0; i < patterns[STOPS].size; i++)
+			EmissionKernel.addStop(stops, patterns[STOPS].starts[i]);
 
 		// Continuators may remove stop patterns
-		for (int i = 0; i < patterns.get("continuators").size(); i++) {
-			int start = patterns.get("continuators").get(i).getMiddle();
+		for (int i = 0; i < patterns[CONTINUATORS].size; i++) {
+			int start = patterns[CONTINUATORS].starts[i];
 
 			// Find the stop pattern that is closest to the left of the
-			// continuator, if any
-			int maxPos = -1;
-			Boolean removeStop = false;
-			// Go through stops
-			for (int position : stops.keySet()) {
-				if (position < start && position > maxPos
-						&& position > start - emissionRange) {
-					maxPos = position;
-					removeStop = true;
-				}
-			}
-
-			// Remove the stop if required
-			if (removeStop)
-				stops.remove(maxPos);
+			// continuator, if any, and remove it
+			int stop = EmissionKernel.previousStop(stops, start - 1);
+			if (stop >= 0 && stop > start - emissionRange)
+				EmissionKernel.removeStop(stops, stop);
 		}
 
-		// Positive emissions
-		for (int i = 0; i < patterns.get("positives").size(); i++) {
-			int start = patterns.get("positives").get(i).getMiddle();
-			int end = patterns.get("positives").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0 && j < emissions.length)
-					emissions[center - j] += Math.exp(-j);
-				if (goRight && center + j < emissions.length)
-					emissions[center + j] += Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
-
-		// Negative emissions
-		for (int i = 0; i < patterns.get("negatives").size(); i++) {
-			int start = patterns.get("negatives").get(i).getMiddle();
-			int end = patterns.get("negatives").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				// Emit left as long as allowed
-				if (goLeft && j != 0 && center - j >= 0 && j < emissions.length)
-					emissions[center - j] -= Math.exp(-j);
-				if (goRight && center + j < emissions.length)
-					emissions[center + j] -= Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
-		}
+		// Positive and negative emissions, all patterns are weighed at their
+		// center and then emit in one go
+		double[] weights = context.weights(length);
+		for (int i = 0; i < patterns[POSITIVES].size; i++)
+			weights[EmissionKernel.center(patterns[POSITIVES].starts[i],
+					patterns[POSITIVES].ends[i])] += 1.0;
+		for (int i = 0; i < patterns[NEGATIVES].size; i++)
+			weights[EmissionKernel.center(patterns[NEGATIVES].starts[i],
+					patterns[NEGATIVES].ends[i])] -= 1.0;
+		EmissionKernel.emit(emissions, weights, stops, length);
 
 		// Remove emissions based on objective patterns
-		for (int i = 0; i < patterns.get("objectives").size(); i++) {
-			int start = patterns.get("objectives").get(i).getMiddle();
-			int end = patterns.get("objectives").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.max(center, tokens.length - center - 1); j++) {
-				if (goLeft && j != 0 && center - j >= 0 && j < emissions.length)
-					emissions[center - j] = 0.0;
-				if (goRight && center + j < emissions.length)
-					emissions[center + j] = 0.0;
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
+		for (int i = 0; i < patterns[OBJECTIVES].size; i++) {
+			int center = EmissionKernel.center(patterns[OBJECTIVES].starts[i],
+					patterns[OBJECTIVES].ends[i]);
+			EmissionKernel.cancel(emissions,
+					EmissionKernel.left(stops, center, length),
+					EmissionKernel.right(stops, length, center, length));
 		}
 
 		// Amplifiers strengthen emissions
-		for (int i = 0; i < patterns.get("amplifiers").size(); i++) {
-			int start = patterns.get("amplifiers").get(i).getMiddle();
-			int end = patterns.get("amplifiers").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.min(emissionRange,
-					Math.max(center, tokens.length - center - 1)); j++) {
-				if (goLeft && j != 0 && center - j >= 0 && j < emissions.length)
-					emissions[center - j] *= 1 + Math.exp(-j);
-				if (goRight && center + j < emissions.length)
-					emissions[center + j] *= 1 + Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
+		for (int i = 0; i < patterns[AMPLIFIERS].size; i++) {
+			int center = EmissionKernel.center(patterns[AMPLIFIERS].starts[i],
+					patterns[AMPLIFIERS].ends[i]);
+			EmissionKernel.amplify(emissions,
+					EmissionKernel.left(stops, center, emissionRange),
+					EmissionKernel.right(stops, length, center, emissionRange),
+					center);
 		}
 
 		// Attenuators weaken emissions
-		for (int i = 0; i < patterns.get("attenuators").size(); i++) {
-			int start = patterns.get("attenuators").get(i).getMiddle();
-			int end = patterns.get("attenuators").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			Boolean goRight = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.min(emissionRange,
-					Math.max(center, tokens.length - center - 1)); j++) {
-				if (goLeft && j != 0 && center - j >= 0 && j < emissions.length)
-					emissions[center - j] *= 1 - Math.exp(-j);
-				if (goRight && center + j < emissions.length)
-					emissions[center + j] *= 1 - Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
+		for (int i = 0; i < patterns[ATTENUATORS].size; i++) {
+			int center = EmissionKernel.center(
+					patterns[ATTENUATORS].starts[i],
+					patterns[ATTENUATORS].ends[i]);
+			EmissionKernel.attenuate(emissions,
+					EmissionKernel.left(stops, center, emissionRange),
+					EmissionKernel.right(stops, length, center, emissionRange),
+					center);
 		}
 
 		// Flip the sign of emissions to the right
-		for (int i = 0; i < patterns.get("rightflips").size(); i++) {
-			int start = patterns.get("rightflips").get(i).getMiddle();
-			int end = patterns.get("rightflips").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goRight = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.min(emissionRange,
-					Math.max(center, tokens.length - center - 1)); j++) {
-				if (goRight && center + j < emissions.length)
-					emissions[center + j] *= -1;
-
-				// Stops
-				if (stops.containsKey(center + j))
-					goRight = false;
-			}
+		for (int i = 0; i < patterns[RIGHTFLIPS].size; i++) {
+			int center = EmissionKernel.center(patterns[RIGHTFLIPS].starts[i],
+					patterns[RIGHTFLIPS].ends[i]);
+			EmissionKernel.negate(emissions, center,
+					EmissionKernel.right(stops, length, center, emissionRange));
 		}
 
 		// Flip the sign of emissions to the left
-		for (int i = 0; i < patterns.get("leftflips").size(); i++) {
-			int start = patterns.get("leftflips").get(i).getMiddle();
-			int end = patterns.get("leftflips").get(i).getRight();
-
-			int center = (int) Math
-					.floor(((double) start + (double) end) / 2.0);
-			// Check for stops
-			Boolean goLeft = true;
-			// Cancel existing emissions to the left and/or right
-			for (int j = 0; j <= Math.min(emissionRange,
-					Math.max(center, tokens.length - center - 1)); j++) {
-				if (goLeft && j != 0 && center - j >= 0 && j < emissions.length)
-					emissions[center - j] *= 1 - Math.exp(-j);
-
-				// Stops
-				if (stops.containsKey(center - j))
-					goLeft = false;
-			}
+		for (int i = 0; i < patterns[LEFTFLIPS].size; i++) {
+			int center = EmissionKernel.center(patterns[LEFTFLIPS].starts[i],
+					patterns[LEFTFLIPS].ends[i]);
+			EmissionKernel.attenuate(emissions,
+					EmissionKernel.left(stops, center, emissionRange),
+					center - 1, center);
 		}
 
-		// Compute score and label
-		Double score = 0.0;
-		for (double emission : emissions)
-			score += emission;
-		String label = "neutral";
-		if (score > 0)
-			label = "positive";
-		if (score < 0)
-			label = "negative";
-
-		return new ImmutablePair<String, Double>(label, score);
+		return emissions;
 	}
 
 	/**
@@ -837,247 +538,209 @@ public class RBEMPolarity {
 	}
 
 	/**
-	 * Adds a pattern to the currently loaded model
+	 * Sets the pool that batches are classified on, the common pool by default
 	 * 
-	 * @param patternType
-	 * @param pattern
+	 * @param pool
+	 *            ForkJoinPool The pool
 	 */
-	public Boolean addPattern(String patternType,
-			List<Pair<String, String>> pattern) {
-		// Check if this type of pattern is allowed
-		String[] allowedPatterns = { "amplifiers", "attenuators",
-				"continuators", "leftflips", "negatives", "neutrals",
-				"objectives", "positives", "rightflips", "stops" };
-
-		Boolean found = false;
-		for (String allowedPattern : allowedPatterns) {
-			if (patternType.equals(allowedPattern))
-				found = true;
-		}
-		if (!found)
-			return false; // Illegal pattern type
-		else {
-			if (pattern.size() > 0) {
-				// Index is computed on first element
-				String firstIndex = pattern.get(0).getLeft().trim()
-						.toLowerCase()
-						+ pattern.get(0).getRight().trim();
-				// Now the total index
-				String totalIndex = "";
-				for (Pair<String, String> member : pattern)
-					totalIndex += member.getLeft().trim().toLowerCase()
-							+ member.getRight().trim();
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
 
-				// We may need to initialize
-				if (!model.get(patternType).containsKey(firstIndex))
-					model.get(patternType)
-							.put(firstIndex,
-									new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
-				if (!model.get(patternType).get(firstIndex)
-						.containsKey(pattern.size()))
-					model.get(patternType)
-							.get(firstIndex)
-							.put(pattern.size(),
-									new HashMap<String, List<Pair<String, String>>>());
+	/**
+	 * Sets the maximum number of sentences that are read ahead and being
+	 * classified at any time when classifying a corpus
+	 * 
+	 * @param window
+	 *            Integer The number of sentences
+	 */
+	public void setWindow(Integer window) {
+		this.window = window;
+	}
 
-				// Finally, add the pattern
-				model.get(patternType).get(firstIndex).get(pattern.size())
-						.put(totalIndex, pattern);
+	/**
+	 * Sets whether subsumed patterns are removed using strict semantics. By
+	 * default, legacy semantics are used where amplifiers are not subsumed by
+	 * other amplifiers, the attenuators also hold all other non-amplifier
+	 * patterns and are not subsumed by other attenuators, and a pattern is
+	 * only subsumed by a pattern ending after it. With strict semantics every
+	 * pattern type only holds its own patterns and a pattern is subsumed by
+	 * any longer pattern covering it.
+	 * 
+	 * @param strict
+	 *            Boolean Whether to use strict semantics
+	 */
+	public void setStrictSubsumption(Boolean strict) {
+		strictSubsumption = strict;
+		ResultCache<Pair<String, Double>> cache = this.cache;
+		if (cache != null)
+			cache.clear();
+	}
 
-				return true;
-			} else
-				return false;
-		}
+	/**
+	 * Enables caching the results of sentences, so that sentences seen
+	 * before, like retweets and templated messages, are not classified
+	 * again. See ResultCache.
+	 * 
+	 * @param capacity
+	 *            Integer The number of results to cache, 0 to stop caching
+	 */
+	public void setCache(Integer capacity) {
+		cache = capacity > 0 ? new ResultCache<Pair<String, Double>>(capacity) : null;
 	}
 
 	/**
-	 * Loads a model for a given language
+	 * Enables remembering the pattern matches of spans of sentences, so that
+	 * sentences sharing long stretches with ones classified before, like
+	 * quotes, only have their new parts matched. See SpanMemo.
 	 * 
-	 * @param language
+	 * @param capacity
+	 *            Integer The number of spans to remember, 0 to stop
 	 */
-	public void loadModel(String language) {
-		if (this.getClass().getResource("/" + language + ".rbemp") != null) {
-			try {
-				// Stream JSON since loading it into memory is too
-				// memory-intensive
-				JsonFactory jFactory = new JsonFactory();
-				JsonParser jParser = jFactory.createJsonParser(this.getClass()
-						.getResourceAsStream("/" + language + ".rbemp"));
+	public void setSpanMemo(Integer capacity) {
+		spanMemo = capacity > 0 ? new SpanMemo(capacity) : null;
+	}
 
-				// Continue until we find the end object
-				while (jParser.nextToken() != JsonToken.END_OBJECT) {
-					// Get the field name
-					String patternType = jParser.getCurrentName();
-					if (model.keySet().contains(patternType)) {
-						jParser.nextToken();
+	/**
+	 * Gets the span memo, for its hit rate
+	 * 
+	 * @return SpanMemo The memo, null when not used
+	 */
+	public SpanMemo getSpanMemo() {
+		return spanMemo;
+	}
 
-						// Keep on going until we find the inner object's end
-						while (jParser.nextToken() != JsonToken.END_OBJECT) {
-							String firstIndex = jParser.getCurrentName();
-							jParser.nextToken();
+	/**
+	 * Starts or stops profiling the patterns of the model, see
+	 * PatternProfiler
+	 * 
+	 * @param profiler
+	 *            PatternProfiler The profiler, null to stop profiling
+	 */
+	public void setProfiler(PatternProfiler profiler) {
+		this.profiler = profiler;
+	}
 
-							// The length
-							while (jParser.nextToken() != JsonToken.END_OBJECT) {
-								String length = jParser.getCurrentName();
-								jParser.nextToken();
+	/**
+	 * Gets the pattern profiler
+	 * 
+	 * @return PatternProfiler The profiler, null when not profiling
+	 */
+	public PatternProfiler getProfiler() {
+		return profiler;
+	}
 
-								// Full indexes
-								while (jParser.nextToken() != JsonToken.END_OBJECT) {
-									String fullIndex = jParser.getCurrentName();
-									jParser.nextToken();
+	/**
+	 * Sets where the measurements of classified sentences go, see
+	 * ClassificationMetrics
+	 * 
+	 * @param metrics
+	 *            ClassificationMetrics The metrics, null to stop measuring
+	 */
+	public void setMetrics(ClassificationMetrics metrics) {
+		this.metrics = metrics == null ? ClassificationMetrics.NONE : metrics;
+	}
 
-									// Patterns
-									while (jParser.nextToken() != JsonToken.END_ARRAY) {
-										// Pattern members
-										String token = null;
-										String tag = null;
-										while (jParser.nextToken() != JsonToken.END_OBJECT) {
-											String fieldName = jParser
-													.getCurrentName();
-											jParser.nextToken();
+	/**
+	 * Gets where the measurements of classified sentences go
+	 * 
+	 * @return ClassificationMetrics The metrics, ClassificationMetrics.NONE
+	 *         when not measuring
+	 */
+	public ClassificationMetrics getMetrics() {
+		return metrics;
+	}
 
-											// Can either be token or tag
-											if (fieldName.equals("token"))
-												token = jParser.getText();
-											else if (fieldName.equals("tag"))
-												tag = jParser.getText();
-										}
+	/**
+	 * Gets the result cache, for its hit rate and other statistics
+	 * 
+	 * @return ResultCache The cache, null when not caching
+	 */
+	public ResultCache<Pair<String, Double>> getCache() {
+		return cache;
+	}
 
-										// Add pattern member
-										if (token != null && tag != null) {
-											// Initialize index
-											if (!model.get(patternType)
-													.containsKey(firstIndex))
-												model.get(patternType)
-														.put(firstIndex,
-																new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
-											// Initialize length
-											if (!model
-													.get(patternType)
-													.get(firstIndex)
-													.containsKey(
-															Integer.parseInt(length)))
-												model.get(patternType)
-														.get(firstIndex)
-														.put(Integer
-																.parseInt(length),
-																new HashMap<String, List<Pair<String, String>>>());
-											// Initialize full index
-											if (!model
-													.get(patternType)
-													.get(firstIndex)
-													.get(Integer
-															.parseInt(length))
-													.containsKey(fullIndex))
-												model.get(patternType)
-														.get(firstIndex)
-														.get(Integer
-																.parseInt(length))
-														.put(fullIndex,
-																new LinkedList<Pair<String, String>>());
+	/**
+	 * Adds a pattern to the currently loaded model
+	 * 
+	 * @param patternType
+	 * @param pattern
+	 */
+	public synchronized Boolean addPattern(String patternType,
+			List<Pair<String, String>> pattern) {
+		Boolean added = editableModel().addPattern(patternType, pattern);
+		if (added)
+			stale = true;
+		return added;
+	}
 
-											// Add the member
-											model.get(patternType)
-													.get(firstIndex)
-													.get(Integer
-															.parseInt(length))
-													.get(fullIndex)
-													.add(new ImmutablePair<String, String>(
-															token, tag));
-										} else
-											jParser.nextToken();
-									}
-								}
-							}
-						}
-					}
-				}
+	/**
+	 * Loads a model for a given language
+	 * 
+	 * @param language
+	 */
+	public synchronized void loadModel(String language) {
+		if (this.getClass().getResource("/" + language + ".rbemp") != null) {
+			editableModel().loadModel(language);
 
-			} catch (Exception e) {
-				System.out.println("Unable to load model");
-				e.printStackTrace();
-			}
+			// From now on the compiled model is all we keep
+			model.set(builder.build());
+			builder = null;
+			stale = false;
 		}
 	}
 
+	/**
+	 * Loads a model stored in the binary model format, replacing the current
+	 * model. See RBEMModel.map.
+	 * 
+	 * @param file
+	 *            Path The model file
+	 * @return Boolean Whether the model was loaded, false if it is not a polarity
+	 *         model
+	 */
+	public Boolean loadBinaryModel(Path file) throws IOException {
+		return setModel(RBEMModel.map(file));
+	}
+
 	/**
 	 * Stores a model into a language-specific file
 	 * 
 	 * @param language
 	 */
-	public void storeModel(String language) {
-		// Stores the model
-		try {
-			// Initialize output JSON
-			JSONObject output = new JSONObject();
-
-			// Go through our model
-			// HashMap<String, HashMap<String, HashMap<Integer, HashMap<String,
-			// List<Pair<String, String>>>>>>
-			for (Entry<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> e1 : model
-					.entrySet()) {
-				String patternType = e1.getKey();
-				HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> fullPatterns = e1
-						.getValue();
-
-				// Go through the fullPatterns list
-				JSONObject fullPatternJson = new JSONObject();
-				for (Entry<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> e2 : fullPatterns
-						.entrySet()) {
-					String patternIndex = e2.getKey();
-					HashMap<Integer, HashMap<String, List<Pair<String, String>>>> patternLengths = e2
-							.getValue();
-
-					// Go through the lengths and patterns in there
-					JSONObject lengthJson = new JSONObject();
-					for (Entry<Integer, HashMap<String, List<Pair<String, String>>>> e3 : patternLengths
-							.entrySet()) {
-						Integer length = e3.getKey();
-						HashMap<String, List<Pair<String, String>>> patterns = e3
-								.getValue();
-
-						// Go through subindex and pattern members
-						JSONObject subIndexedJson = new JSONObject();
-						for (Entry<String, List<Pair<String, String>>> e4 : patterns
-								.entrySet()) {
-							String index = e4.getKey();
-							List<Pair<String, String>> patternMembers = e4
-									.getValue();
-
-							// Go through all members
-							JSONArray memberJson = new JSONArray();
-							for (Pair<String, String> member : patternMembers) {
-								String token = member.getLeft();
-								String tag = member.getRight();
+	public synchronized void storeModel(String language) {
+		editableModel().storeModel(language);
+	}
 
-								memberJson.put(new JSONObject().put("token",
-										token).put("tag", tag));
-							}
+	/**
+	 * Stores the model in a file as JSON, replacing the file as a whole once
+	 * the model is written
+	 * 
+	 * @param file
+	 *            Path The file to store the model in
+	 */
+	public synchronized void storeModel(Path file) throws IOException {
+		editableModel().storeModel(file);
+	}
 
-							// Add to our JSON
-							subIndexedJson.put(index, memberJson);
-						}
-						// Add to JSON
-						lengthJson.put(length.toString(), subIndexedJson);
-					}
-					// Add to JSON
-					fullPatternJson.put(patternIndex, lengthJson);
-				}
-				// Add to JSON
-				output.put(patternType, fullPatternJson);
-			}
+	/**
+	 * Stores the model in a stream as JSON, generating it while going through
+	 * the model
+	 * 
+	 * @param out
+	 *            OutputStream The stream to write to, it is not closed
+	 */
+	public synchronized void storeModel(OutputStream out) throws IOException {
+		editableModel().storeModel(out);
+	}
 
-			// Write to model file
-			File modelFile = new File("src/main/resources/" + language
-					+ ".rbemp");
-			BufferedWriter br = new BufferedWriter(new OutputStreamWriter(
-					new FileOutputStream(modelFile), "UTF8"));
-			br.write(output.toString());
-			br.flush();
-			br.close();
-		} catch (Exception e) {
-			System.out.println("Unable to store model");
-			e.printStackTrace();
-		}
+	/**
+	 * Stores the model in the binary model format, see loadBinaryModel
+	 * 
+	 * @param file
+	 *            Path The file to store the model in
+	 */
+	public void storeBinaryModel(Path file) throws IOException {
+		getModel().store(file);
 	}
 }
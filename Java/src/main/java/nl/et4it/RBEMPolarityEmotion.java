@@ -0,0 +1,371 @@
+package nl.et4it;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Classifies sentences on polarity and emotion at the same time, for when
+ * both are needed for every sentence. Gives the same results as RBEMPolarity
+ * and RBEMEmotion with the same models, up to rounding, in less time.
+ *
+ * The polarity and the emotion model are compiled into a single model, in
+ * which a pattern of a type both models have, like the amplifiers or the
+ * stops, is stored once if both models hold it. A sentence is thus encoded
+ * once and matched in a single pass, after which the matches are split into
+ * those of either model. Subsumed patterns are removed and the rules are
+ * applied per model, as what is subsumed depends on all patterns of a model.
+ */
+public class RBEMPolarityEmotion {
+	// Apply the rules of either model, and hold their settings
+	private final RBEMPolarity polarity = new RBEMPolarity();
+	private final RBEMEmotion emotion = new RBEMEmotion();
+	// The combined model all classification is done against, only replaced
+	// as a whole
+	private final AtomicReference<CombinedModel> model = new AtomicReference<CombinedModel>();
+
+	public RBEMPolarityEmotion() {
+		setModels(polarity.getModel(), emotion.getModel());
+	}
+
+	/**
+	 * Loads the polarity and the emotion model of a language, replacing the
+	 * current models. Nothing is replaced if either is not present.
+	 *
+	 * @param language
+	 *            String The language, like en_UK
+	 */
+	public synchronized void loadModel(String language) {
+		if (getClass().getResource("/" + language + ".rbemp") == null
+				|| getClass().getResource("/" + language + ".rbeme") == null)
+			return;
+		RBEMModelBuilder polarityBuilder = RBEMPolarity.modelBuilder();
+		polarityBuilder.loadModel(language);
+		RBEMModelBuilder emotionBuilder = RBEMEmotion.modelBuilder();
+		emotionBuilder.loadModel(language);
+		model.set(combine(polarityBuilder.model, emotionBuilder.model));
+	}
+
+	/**
+	 * Replaces the models that are classified against, like models loaded
+	 * with RBEMModel.map. Classifications that are already running finish on
+	 * the models they started with.
+	 *
+	 * @param polarityModel
+	 *            RBEMModel The polarity model
+	 * @param emotionModel
+	 *            RBEMModel The emotion model
+	 * @return Boolean Whether the models were replaced, false if they are not
+	 *         a polarity and an emotion model
+	 */
+	public synchronized Boolean setModels(RBEMModel polarityModel,
+			RBEMModel emotionModel) {
+		if (!Arrays.equals(polarityModel.index.patternTypes,
+				RBEMPolarity.PATTERN_TYPES)
+				|| !Arrays.equals(emotionModel.index.patternTypes,
+						RBEMEmotion.PATTERN_TYPES))
+			return false;
+		model.set(combine(polarityModel.index.toModel(),
+				emotionModel.index.toModel()));
+		return true;
+	}
+
+	/**
+	 * Compiles a polarity and an emotion model into one. Every pattern type
+	 * of either model becomes a type of its own for the patterns only that
+	 * model holds, and every type both models have gets another type for the
+	 * patterns both hold.
+	 */
+	private static CombinedModel combine(
+			HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> polarityModel,
+			HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> emotionModel) {
+		String[] polarityTypes = RBEMPolarity.PATTERN_TYPES;
+		String[] emotionTypes = RBEMEmotion.PATTERN_TYPES;
+		int[] emotionOf = new int[polarityTypes.length];
+		int shared = 0;
+		for (int t = 0; t < polarityTypes.length; t++) {
+			emotionOf[t] = Arrays.asList(emotionTypes).indexOf(polarityTypes[t]);
+			if (emotionOf[t] >= 0)
+				shared++;
+		}
+
+		// Polarity only, emotion only and then both
+		int typeCount = polarityTypes.length + emotionTypes.length + shared;
+		String[] patternTypes = new String[typeCount];
+		int[] polarityType = new int[typeCount];
+		int[] emotionType = new int[typeCount];
+		Arrays.fill(polarityType, -1);
+		Arrays.fill(emotionType, -1);
+		int[] bothOf = new int[polarityTypes.length];
+		int type = 0;
+		for (int t = 0; t < polarityTypes.length; t++, type++) {
+			patternTypes[type] = "rbemp:" + polarityTypes[t];
+			polarityType[type] = t;
+		}
+		for (int t = 0; t < emotionTypes.length; t++, type++) {
+			patternTypes[type] = "rbeme:" + emotionTypes[t];
+			emotionType[type] = t;
+		}
+		for (int t = 0; t < polarityTypes.length; t++)
+			if (emotionOf[t] >= 0) {
+				patternTypes[type] = polarityTypes[t];
+				polarityType[type] = t;
+				emotionType[type] = emotionOf[t];
+				bothOf[t] = type++;
+			}
+
+		HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> combined = new HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>>();
+		for (int t = 0; t < polarityTypes.length; t++) {
+			HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> emotionPatterns = emotionOf[t] >= 0 ? emotionModel
+					.get(polarityTypes[t]) : null;
+			split(polarityModel.get(polarityTypes[t]), emotionPatterns,
+					combined, patternTypes[t],
+					emotionOf[t] >= 0 ? patternTypes[bothOf[t]] : null);
+		}
+		for (int t = 0; t < emotionTypes.length; t++) {
+			int p = Arrays.asList(polarityTypes).indexOf(emotionTypes[t]);
+			split(emotionModel.get(emotionTypes[t]),
+					p >= 0 ? polarityModel.get(emotionTypes[t]) : null,
+					combined, patternTypes[polarityTypes.length + t], null);
+		}
+
+		return new CombinedModel(PatternIndex.compile(patternTypes, combined),
+				polarityType, emotionType);
+	}
+
+	/**
+	 * Adds the patterns of a type of one model to the combined model, under
+	 * one type if the other model holds them as well and under another if it
+	 * does not
+	 */
+	private static void split(
+			HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> patterns,
+			HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> otherPatterns,
+			HashMap<String, HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>> combined,
+			String ownType, String bothType) {
+		if (patterns == null)
+			return;
+		for (Map.Entry<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>> first : patterns
+				.entrySet())
+			for (Map.Entry<Integer, HashMap<String, List<Pair<String, String>>>> length : first
+					.getValue().entrySet())
+				for (Map.Entry<String, List<Pair<String, String>>> pattern : length
+						.getValue().entrySet()) {
+					boolean inBoth = otherPatterns != null
+							&& otherPatterns.containsKey(first.getKey())
+							&& otherPatterns.get(first.getKey()).containsKey(
+									length.getKey())
+							&& otherPatterns.get(first.getKey())
+									.get(length.getKey())
+									.containsKey(pattern.getKey());
+					if (inBoth && bothType == null)
+						// Added with the patterns of the other model
+						continue;
+					String type = inBoth ? bothType : ownType;
+					if (!combined.containsKey(type))
+						combined.put(
+								type,
+								new HashMap<String, HashMap<Integer, HashMap<String, List<Pair<String, String>>>>>());
+					if (!combined.get(type).containsKey(first.getKey()))
+						combined.get(type).put(first.getKey(),
+								new HashMap<Integer, HashMap<String, List<Pair<String, String>>>>());
+					if (!combined.get(type).get(first.getKey())
+							.containsKey(length.getKey()))
+						combined.get(type)
+								.get(first.getKey())
+								.put(length.getKey(),
+										new HashMap<String, List<Pair<String, String>>>());
+					combined.get(type).get(first.getKey()).get(length.getKey())
+							.put(pattern.getKey(), pattern.getValue());
+				}
+	}
+
+	/**
+	 * Classifies a sentence on polarity and emotion. Any number of threads
+	 * can classify at the same time.
+	 *
+	 * @param tokens
+	 *            Array[String] The tokens of the sentence
+	 * @param tags
+	 *            Array[String] The POS-tags of the sentence
+	 * @param normalize
+	 *            Boolean Whether to normalize the emotion scores, see
+	 *            RBEMEmotion.classify
+	 * @return Result The polarity and the emotion scores
+	 */
+	public Result classify(String[] tokens, String[] tags, Boolean normalize)
+			throws Exception {
+		ClassificationContext context = ClassificationContext.get();
+		double score = score(context, tokens, tags, normalize);
+		return new Result(RBEMPolarity.result(score),
+				RBEMEmotion.result(context.axisSums));
+	}
+
+	/**
+	 * Classifies a sentence like classify(tokens, tags, normalize), but
+	 * writes the polarity into a holder and the emotion scores into an array
+	 * instead of returning new objects, so nothing is allocated, hashed,
+	 * boxed or compared as a string
+	 *
+	 * @param tokens
+	 *            Array[String] The tokens of the sentence
+	 * @param tags
+	 *            Array[String] The POS-tags of the sentence
+	 * @param normalize
+	 *            Boolean Whether to normalize the emotion scores
+	 * @param polarityResult
+	 *            PolarityResult Receives the polarity label and score
+	 * @param emotionScores
+	 *            Array[Double] Receives the score of every emotion axis, see
+	 *            RBEMEmotion.classify(tokens, tags, normalize, scores)
+	 */
+	public void classify(String[] tokens, String[] tags, Boolean normalize,
+			PolarityResult polarityResult, double[] emotionScores)
+			throws Exception {
+		ClassificationContext context = ClassificationContext.get();
+		polarityResult.set(score(context, tokens, tags, normalize));
+		System.arraycopy(context.axisSums, 0, emotionScores, 0,
+				RBEMEmotion.AXES.length);
+	}
+
+	/**
+	 * Classifies a sentence on both models
+	 *
+	 * @return Double The polarity score, the emotion scores are left in the
+	 *         axis sums of the context
+	 */
+	private double score(ClassificationContext context, String[] tokens,
+			String[] tags, Boolean normalize) throws Exception {
+		CombinedModel combined = model.get();
+		PatternIndex index = combined.index;
+
+		// Encode and match once
+		EncodedSentence sentence = context.sentence;
+		sentence.encode(index.tokenSymbols, index.tagSymbols, tokens, tags);
+		int length = sentence.length;
+		index.matchAll(sentence, context.matches);
+
+		// Split the matches per model, keeping their order
+		Matches matches = context.matches;
+		Matches polarityMatches = context.splitMatches[0];
+		Matches emotionMatches = context.splitMatches[1];
+		polarityMatches.clear();
+		emotionMatches.clear();
+		for (int i = 0; i < matches.size; i++) {
+			int type = matches.types[i];
+			if (combined.polarityType[type] >= 0)
+				polarityMatches.add(combined.polarityType[type],
+						matches.starts[i], matches.ends[i],
+						matches.patterns[i]);
+			if (combined.emotionType[type] >= 0)
+				emotionMatches.add(combined.emotionType[type],
+						matches.starts[i], matches.ends[i],
+						matches.patterns[i]);
+		}
+
+		// Apply the rules per model, the emissions of both are kept in the
+		// same place so polarity goes first
+		Matches[] patterns = context.patterns(RBEMPolarity.PATTERN_TYPES.length);
+		Subsumption.removeSubsumed(polarityMatches, patterns,
+				polarity.strictSubsumption);
+		double score = RBEMPolarity.score(
+				polarity.applyRules(context, patterns, length), length);
+
+		patterns = context.patterns(RBEMEmotion.PATTERN_TYPES.length);
+		Subsumption.removeSubsumed(emotionMatches, patterns,
+				emotion.strictSubsumption);
+		RBEMEmotion.scores(emotion.applyRules(context, patterns, length),
+				context.axisSums, length, normalize);
+
+		return score;
+	}
+
+	/**
+	 * Classifies a sentence based on a line of space-separated words and
+	 * space-separated POS-tags
+	 *
+	 * @param sentence
+	 *            String The words
+	 * @param tagLine
+	 *            String The POS-tags
+	 * @param normalize
+	 *            Boolean Whether to normalize the emotion scores
+	 * @return Result The polarity and the emotion scores
+	 */
+	public Result classify(String sentence, String tagLine, Boolean normalize)
+			throws Exception {
+		return classify(sentence.split(" "), tagLine.split(" "), normalize);
+	}
+
+	/**
+	 * Sets the semantics used to remove subsumed patterns of both models, see
+	 * RBEMPolarity.setStrictSubsumption
+	 *
+	 * @param strict
+	 *            Boolean Whether to use strict semantics
+	 */
+	public void setStrictSubsumption(Boolean strict) {
+		polarity.setStrictSubsumption(strict);
+		emotion.setStrictSubsumption(strict);
+	}
+
+	/**
+	 * Gets the number of patterns of the combined model, counting patterns
+	 * both models hold once
+	 *
+	 * @return Int The number of patterns
+	 */
+	public int size() {
+		return model.get().index.size;
+	}
+
+	/**
+	 * The polarity and the emotion model compiled into one, never modified
+	 */
+	private static final class CombinedModel {
+		final PatternIndex index;
+		// The type of every combined type in either model, -1 if it has none
+		final int[] polarityType;
+		final int[] emotionType;
+
+		CombinedModel(PatternIndex index, int[] polarityType,
+				int[] emotionType) {
+			this.index = index;
+			this.polarityType = polarityType;
+			this.emotionType = emotionType;
+		}
+	}
+
+	/**
+	 * The polarity and the emotion scores of a sentence
+	 */
+	public static final class Result {
+		private final Pair<String, Double> polarity;
+		private final HashMap<String, Double> emotions;
+
+		Result(Pair<String, Double> polarity, HashMap<String, Double> emotions) {
+			this.polarity = polarity;
+			this.emotions = emotions;
+		}
+
+		/**
+		 * @return Pair[String, Double] The polarity label and score, as
+		 *         RBEMPolarity.classify gives them
+		 */
+		public Pair<String, Double> getPolarity() {
+			return polarity;
+		}
+
+		/**
+		 * @return HashMap[String, Double] The score of every emotion axis, as
+		 *         RBEMEmotion.classify gives them
+		 */
+		public HashMap<String, Double> getEmotions() {
+			return emotions;
+		}
+	}
+}
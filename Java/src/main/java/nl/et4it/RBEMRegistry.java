@@ -0,0 +1,304 @@
+package nl.et4it;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands out the classifiers of any number of languages, loading their models
+ * on first use and keeping them within a memory budget.
+ *
+ * All models share a single table of POS-tag symbols, and the polarity and
+ * emotion model of a language share their token symbols. Shared tables are
+ * never modified: a model holding symbols that are not in the shared table
+ * yet gets a larger copy with the same identifiers, which is shared from then
+ * on. The models already loaded are moved onto the larger copy as they are,
+ * without compiling them again.
+ *
+ * Once the estimated memory of the loaded models exceeds the budget, the
+ * models used least recently are evicted until it fits again, though the
+ * model that was loaded last is always kept. Classifiers handed out before
+ * remain usable, the registry only stops holding on to them and loads them
+ * again on their next use. Every model is loaded once, other threads asking
+ * for it in the meantime wait for it.
+ */
+public class RBEMRegistry {
+	private final long memoryBudget;
+	// Loaded and loading models by resource name, least recently used first
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(
+			16, 0.75f, true);
+	// The token symbols shared by the models of every language
+	private final Map<String, SymbolTable> tokenSymbols = new LinkedHashMap<String, SymbolTable>();
+	// The POS-tag symbols shared by all models
+	private SymbolTable tagSymbols = null;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder loadNanos = new LongAdder();
+
+	/**
+	 * Creates a registry
+	 *
+	 * @param memoryBudget
+	 *            Long The number of bytes the loaded models may take, as
+	 *            estimated from their patterns and symbols
+	 */
+	public RBEMRegistry(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Gets the polarity classifier of a language, loading its model if it is
+	 * not loaded
+	 *
+	 * @param language
+	 *            String The language, like en_UK
+	 * @return RBEMPolarity The classifier
+	 * @throws IOException
+	 *             If the language has no polarity model
+	 */
+	public RBEMPolarity polarity(String language) throws IOException {
+		return (RBEMPolarity) get(language, false);
+	}
+
+	/**
+	 * Gets the emotion classifier of a language, loading its model if it is
+	 * not loaded
+	 *
+	 * @param language
+	 *            String The language, like en_UK
+	 * @return RBEMEmotion The classifier
+	 * @throws IOException
+	 *             If the language has no emotion model
+	 */
+	public RBEMEmotion emotion(String language) throws IOException {
+		return (RBEMEmotion) get(language, true);
+	}
+
+	private Object get(String language, boolean emotion) throws IOException {
+		String resource = language + (emotion ? ".rbeme" : ".rbemp");
+		Entry entry;
+		boolean load = false;
+		synchronized (this) {
+			entry = entries.get(resource);
+			if (entry == null) {
+				entry = new Entry(language);
+				entries.put(resource, entry);
+				load = true;
+			}
+		}
+
+		if (load) {
+			misses.increment();
+			load(resource, entry, emotion);
+		} else
+			hits.increment();
+
+		try {
+			return entry.classifier.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw e;
+		}
+	}
+
+	private void load(String resource, Entry entry, boolean emotion) {
+		long start = System.nanoTime();
+		try {
+			if (getClass().getResource("/" + resource) == null)
+				throw new IOException("No model " + resource);
+			RBEMModelBuilder builder = emotion ? RBEMEmotion.modelBuilder()
+					: RBEMPolarity.modelBuilder();
+			builder.loadModel(entry.language);
+
+			SymbolTable tokens;
+			SymbolTable tags;
+			synchronized (this) {
+				tokens = tokenSymbols.get(entry.language);
+				tags = tagSymbols;
+			}
+			RBEMModel model = builder.build(tokens, tags);
+			Object classifier;
+			if (emotion) {
+				RBEMEmotion classifierEmotion = new RBEMEmotion();
+				classifierEmotion.setModel(model);
+				classifier = classifierEmotion;
+			} else {
+				RBEMPolarity classifierPolarity = new RBEMPolarity();
+				classifierPolarity.setModel(model);
+				classifier = classifierPolarity;
+			}
+			loadNanos.add(System.nanoTime() - start);
+			loads.increment();
+
+			synchronized (this) {
+				// Share the tables of the model unless others replaced the
+				// tables it was compiled against in the meantime
+				if (tokenSymbols.get(entry.language) == tokens)
+					tokenSymbols.put(entry.language, model.index.tokenSymbols);
+				if (tagSymbols == tags)
+					tagSymbols = model.index.tagSymbols;
+				entry.model = model;
+				entry.published = emotion ? ((RBEMEmotion) classifier).model
+						: ((RBEMPolarity) classifier).model;
+				for (Entry other : entries.values())
+					if (other != entry && other.model != null)
+						share(other);
+				evict(entry);
+			}
+			entry.classifier.complete(classifier);
+		} catch (Exception e) {
+			synchronized (this) {
+				entries.remove(resource, entry);
+			}
+			entry.classifier.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Moves a loaded model onto the shared symbol tables, if they hold all of
+	 * its symbols and its classifier still classifies against it
+	 */
+	private void share(Entry entry) {
+		PatternIndex index = entry.model.index;
+		SymbolTable tokens = tokenSymbols.get(entry.language);
+		if (tokens == null || !tokens.startsWith(index.tokenSymbols))
+			tokens = index.tokenSymbols;
+		SymbolTable tags = tagSymbols;
+		if (tags == null || !tags.startsWith(index.tagSymbols))
+			tags = index.tagSymbols;
+		if (tokens == index.tokenSymbols && tags == index.tagSymbols)
+			return;
+
+		RBEMModel shared = new RBEMModel(entry.model.extension,
+				index.withSymbols(tokens, tags));
+		if (entry.published.compareAndSet(entry.model, shared))
+			entry.model = shared;
+	}
+
+	/**
+	 * Evicts the models used least recently until the rest fits in the
+	 * budget, keeping the one given
+	 */
+	private void evict(Entry keep) {
+		while (memoryUsage() > memoryBudget) {
+			Entry evicted = null;
+			for (Iterator<Entry> it = entries.values().iterator(); it
+					.hasNext();) {
+				Entry entry = it.next();
+				if (entry != keep && entry.model != null) {
+					it.remove();
+					evicted = entry;
+					break;
+				}
+			}
+			if (evicted == null)
+				return;
+			evictions.increment();
+
+			// Stop sharing the tokens of a language nothing is loaded of
+			boolean used = false;
+			for (Entry entry : entries.values())
+				used |= entry.language.equals(evicted.language);
+			if (!used)
+				tokenSymbols.remove(evicted.language);
+		}
+	}
+
+	/**
+	 * Estimates the memory taken by the loaded models, counting every symbol
+	 * table once however many models share it
+	 *
+	 * @return Long The estimated number of bytes
+	 */
+	public synchronized long memoryUsage() {
+		long bytes = 0;
+		IdentityHashMap<SymbolTable, Boolean> tables = new IdentityHashMap<SymbolTable, Boolean>();
+		for (Entry entry : entries.values())
+			if (entry.model != null) {
+				bytes += entry.model.index.bytes();
+				tables.put(entry.model.index.tokenSymbols, true);
+				tables.put(entry.model.index.tagSymbols, true);
+			}
+		for (SymbolTable table : tables.keySet())
+			bytes += table.bytes();
+		return bytes;
+	}
+
+	/**
+	 * @return Long The number of bytes the loaded models may take
+	 */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * @return Int The number of models loaded or being loaded
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return Long The number of times a model was asked for and was loaded,
+	 *         or being loaded, already
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return Long The number of times a model was asked for and had to be
+	 *         loaded
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return Long The number of models evicted to stay within the budget
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return Long The number of models loaded successfully
+	 */
+	public long getLoads() {
+		return loads.sum();
+	}
+
+	/**
+	 * @return Long The nanoseconds spent loading models, in total over all
+	 *         loads
+	 */
+	public long getLoadNanos() {
+		return loadNanos.sum();
+	}
+
+	/**
+	 * A model in the registry, the classifier completes once it is loaded
+	 */
+	private static class Entry {
+		final String language;
+		final CompletableFuture<Object> classifier = new CompletableFuture<Object>();
+		// Set once loaded, guarded by the registry
+		RBEMModel model = null;
+		// The model the classifier classifies against
+		AtomicReference<RBEMModel> published = null;
+
+		Entry(String language) {
+			this.language = language;
+		}
+	}
+}
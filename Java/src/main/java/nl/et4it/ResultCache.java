@@ -0,0 +1,263 @@
+package nl.et4it;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of classification results for sentences that are seen
+ * over and over, like retweets and templated messages. Classifiers use it in
+ * front of classification once it is enabled with setCache.
+ *
+ * Sentences are hashed on their tokens and POS-tags into buckets of a few
+ * entries each. Entries are never modified, so reading them takes no locks;
+ * adding one locks one of a set of stripes. A bucket that is full evicts the
+ * entry that was used least often, as counted by a small count-min sketch of
+ * all sentences looked up, and only if the new sentence was used more often
+ * than that entry. Sentences seen once thus never push out the ones that
+ * keep coming back. Counts are halved now and then so that the cache follows
+ * changes in traffic, and are approximate: concurrent lookups may lose an
+ * increment now and then.
+ *
+ * Every entry holds the generation of the compiled model it was classified
+ * against, a number no other model has, and only matches as long as that
+ * model is the one being classified against. Adding patterns or loading a
+ * model thus leaves all entries unused until they are replaced, which the
+ * first sentence added to their bucket does. Entries do not refer to the
+ * model itself, so they keep no replaced model in memory.
+ */
+public class ResultCache<R> {
+	// Entries per bucket
+	static final int WAYS = 8;
+	// Maximum count in the sketch
+	static final int MAX_COUNT = 15;
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+
+	private final AtomicReferenceArray<Entry<R>> entries;
+	private final int bucketMask;
+	private final Object[] stripes = new Object[64];
+	// Count-min sketch of 4 rows
+	private final int[] sketch;
+	private final int sketchMask;
+	// Lookups until the counts are halved
+	private final AtomicInteger untilAging;
+	private final int agingPeriod;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+
+	/**
+	 * Creates a cache
+	 *
+	 * @param capacity
+	 *            Int The number of results to hold at least, rounded up to a
+	 *            power of two
+	 */
+	public ResultCache(int capacity) {
+		int buckets = Integer.highestOneBit(Math.max(1,
+				(capacity + WAYS - 1) / WAYS) * 2 - 1);
+		entries = new AtomicReferenceArray<Entry<R>>(buckets * WAYS);
+		bucketMask = buckets - 1;
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Object();
+
+		int width = Math.max(64, buckets * WAYS);
+		sketch = new int[4 * width];
+		sketchMask = width - 1;
+		agingPeriod = 10 * width;
+		untilAging = new AtomicInteger(agingPeriod);
+	}
+
+	/**
+	 * Gets the result of a sentence, if it is cached
+	 *
+	 * @param generation
+	 *            Int The generation of the compiled model that is
+	 *            classified against
+	 * @param tokens
+	 *            String[] The tokens of the sentence
+	 * @param tags
+	 *            String[] The POS-tags of the sentence
+	 * @param variant
+	 *            Int Distinguishes results of the same sentence, like
+	 *            normalized or not
+	 * @return R The result, null if it is not cached
+	 */
+	R get(int generation, String[] tokens, String[] tags, int variant) {
+		long hash = hash(tokens, tags, variant);
+		record(hash);
+		int base = ((int) hash & bucketMask) * WAYS;
+		for (int way = 0; way < WAYS; way++) {
+			Entry<R> entry = entries.get(base + way);
+			if (entry != null && entry.matches(hash, generation, tokens, tags, variant)) {
+				hits.increment();
+				return entry.result;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Adds the result of a sentence, see get
+	 */
+	void put(int generation, String[] tokens, String[] tags, int variant,
+			R result) {
+		long hash = hash(tokens, tags, variant);
+		Entry<R> added = new Entry<R>(hash, generation, tokens.clone(),
+				tags.clone(), variant, result);
+		int bucket = (int) hash & bucketMask;
+		int base = bucket * WAYS;
+		synchronized (stripes[bucket & (stripes.length - 1)]) {
+			// A free slot, one of an older model or the same sentence
+			int victim = -1;
+			int victimCount = Integer.MAX_VALUE;
+			for (int way = 0; way < WAYS; way++) {
+				Entry<R> entry = entries.get(base + way);
+				if (entry == null || entry.generation != generation
+						|| entry.matches(hash, generation, tokens, tags, variant)) {
+					entries.set(base + way, added);
+					return;
+				}
+				int count = estimate(entry.hash);
+				if (count < victimCount) {
+					victim = way;
+					victimCount = count;
+				}
+			}
+
+			// Full, evict the entry used least often if it is used less
+			if (estimate(hash) > victimCount) {
+				entries.set(base + victim, added);
+				evictions.increment();
+			} else
+				rejections.increment();
+		}
+	}
+
+	/**
+	 * Removes all entries, for when the way results are computed changes
+	 */
+	public void clear() {
+		for (int i = 0; i < entries.length(); i++)
+			entries.set(i, null);
+	}
+
+	/**
+	 * @return Int The number of results the cache holds at most
+	 */
+	public int capacity() {
+		return entries.length();
+	}
+
+	/**
+	 * @return Long The number of lookups that found a result
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return Long The number of lookups that found no result
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return Double The share of lookups that found a result, 0 if there
+	 *         were none
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups == 0 ? 0.0 : (double) hits / lookups;
+	}
+
+	/**
+	 * @return Long The number of results evicted for more frequent ones
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return Long The number of results not added because everything in
+	 *         their bucket was used more often
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * Hashes the tokens and POS-tags of a sentence
+	 */
+	static long hash(String[] tokens, String[] tags, int variant) {
+		long hash = (variant + 1) * SEED + tokens.length;
+		for (String token : tokens)
+			hash = (hash ^ (token == null ? 0 : token.hashCode())) * SEED;
+		for (String tag : tags)
+			hash = (hash ^ (tag == null ? 0 : tag.hashCode())) * SEED;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		return hash ^ (hash >>> 33);
+	}
+
+	private void record(long hash) {
+		for (int row = 0; row < 4; row++) {
+			int slot = row * (sketchMask + 1) + sketchIndex(hash, row);
+			if (sketch[slot] < MAX_COUNT)
+				sketch[slot]++;
+		}
+		if (untilAging.decrementAndGet() == 0) {
+			for (int i = 0; i < sketch.length; i++)
+				sketch[i] >>>= 1;
+			untilAging.set(agingPeriod);
+		}
+	}
+
+	private int estimate(long hash) {
+		int count = MAX_COUNT;
+		for (int row = 0; row < 4; row++)
+			count = Math.min(count, sketch[row * (sketchMask + 1)
+					+ sketchIndex(hash, row)]);
+		return count;
+	}
+
+	private int sketchIndex(long hash, int row) {
+		return (int) ((hash >>> (16 * row)) ^ (hash >>> 40 + row)) & sketchMask;
+	}
+
+	/**
+	 * A cached result, never modified
+	 */
+	private static final class Entry<R> {
+		final long hash;
+		final int generation;
+		final String[] tokens;
+		final String[] tags;
+		final int variant;
+		final R result;
+
+		Entry(long hash, int generation, String[] tokens, String[] tags,
+				int variant, R result) {
+			this.hash = hash;
+			this.generation = generation;
+			this.tokens = tokens;
+			this.tags = tags;
+			this.variant = variant;
+			this.result = result;
+		}
+
+		boolean matches(long hash, int generation, String[] tokens,
+				String[] tags, int variant) {
+			return this.hash == hash && this.generation == generation
+					&& this.variant == variant
+					&& Arrays.equals(this.tokens, tokens)
+					&& Arrays.equals(this.tags, tags);
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package nl.et4it;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the pattern matches of spans of sentences, so that sentences
+ * sharing long stretches with sentences seen before, like a quoted tweet with
+ * a short comment added, only have their new parts matched. Classifiers use
+ * it in place of PatternIndex.matchAll once it is enabled with setSpanMemo.
+ *
+ * Sentences are cut into chunks at positions chosen by their content rather
+ * than their offset, so the same stretch of text is cut the same way wherever
+ * it occurs in a sentence. The matches starting in a chunk are remembered
+ * under the symbols of the chunk and of the positions following it up to
+ * LOOKAHEAD, relative to the start of the chunk. They are only remembered
+ * when matching looked no further than that, or when the span runs up to the
+ * end of the sentence, in which case the end is part of the key. Reassembling
+ * the matches of all chunks gives exactly the matches, in exactly the order,
+ * of matchAll.
+ *
+ * Entries are never modified, and are read and written without locks; a
+ * write may replace an entry another thread just wrote, which only costs a
+ * later miss. Every entry holds the compiled model it was matched against, so
+ * entries of older models are never used.
+ */
+public class SpanMemo {
+	// Entries per bucket
+	static final int WAYS = 4;
+	// Chunks are cut where the hash of a position is 0 modulo this
+	static final int CHUNK_MASK = 7;
+	static final int MAX_CHUNK = 16;
+	// Positions after a chunk its key covers
+	static final int LOOKAHEAD = 8;
+	private static final long SEED = 0x9E3779B97F4A7C15L;
+
+	private final AtomicReferenceArray<Entry> entries;
+	// Hashes of the entries, so that only entries that are likely to match
+	// are looked at. Read and written without synchronization, entries are
+	// checked in full before they are used.
+	private final long[] hashes;
+	private final int bucketMask;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a memo
+	 *
+	 * @param capacity
+	 *            Int The number of chunks to remember at least, rounded up to
+	 *            a power of two
+	 */
+	public SpanMemo(int capacity) {
+		int buckets = Integer.highestOneBit(Math.max(1,
+				(capacity + WAYS - 1) / WAYS) * 2 - 1);
+		entries = new AtomicReferenceArray<Entry>(buckets * WAYS);
+		hashes = new long[buckets * WAYS];
+		bucketMask = buckets - 1;
+	}
+
+	/**
+	 * Finds all matches of all patterns in a sentence, like
+	 * PatternIndex.matchAll
+	 *
+	 * @param index
+	 *            PatternIndex The compiled model
+	 * @param sentence
+	 *            EncodedSentence The sentence
+	 * @param found
+	 *            Matches Receives the matches, in start order
+	 */
+	void matchAll(PatternIndex index, EncodedSentence sentence, Matches found) {
+		found.clear();
+		int length = sentence.length;
+		int start = 0;
+		while (start < length) {
+			// Cut the chunk
+			int end = start + 1;
+			while (end < length && end - start < MAX_CHUNK
+					&& (mix(sentence.tokens[end], sentence.tags[end]) & CHUNK_MASK) != 0)
+				end++;
+			int keyEnd = Math.min(end + LOOKAHEAD, length);
+			Entry entry = lookup(index, sentence, start, keyEnd);
+			if (entry != null && entry.matches == null) {
+				// Looks further ahead, key it on the rest of the sentence
+				keyEnd = length;
+				entry = lookup(index, sentence, start, keyEnd);
+			}
+
+			if (entry != null) {
+				hits.increment();
+				int[] matches = entry.matches;
+				for (int m = 0; m < matches.length; m += 4)
+					found.add(matches[m], start + matches[m + 1], start
+							+ matches[m + 2], matches[m + 3]);
+			} else {
+				misses.increment();
+				int first = found.size;
+				int reach = start;
+				for (int i = start; i < end; i++)
+					reach = Math.max(reach,
+							index.matchAtWithReach(sentence, i, found));
+
+				if (keyEnd < length && reach >= keyEnd) {
+					// Remember that it looks further ahead
+					store(index, sentence, start, keyEnd, null);
+					keyEnd = length;
+				}
+				int[] matches = new int[4 * (found.size - first)];
+				for (int m = first; m < found.size; m++) {
+					matches[4 * (m - first)] = found.types[m];
+					matches[4 * (m - first) + 1] = found.starts[m] - start;
+					matches[4 * (m - first) + 2] = found.ends[m] - start;
+					matches[4 * (m - first) + 3] = found.patterns[m];
+				}
+				store(index, sentence, start, keyEnd, matches);
+			}
+			start = end;
+		}
+	}
+
+	private Entry lookup(PatternIndex index, EncodedSentence sentence,
+			int start, int end) {
+		boolean atEnd = end == sentence.length;
+		long hash = hash(sentence, start, end, atEnd);
+		int base = ((int) hash & bucketMask) * WAYS;
+		for (int way = 0; way < WAYS; way++) {
+			if (hashes[base + way] != hash)
+				continue;
+			Entry entry = entries.get(base + way);
+			if (entry != null
+					&& entry.matches(hash, index, sentence, start, end, atEnd))
+				return entry;
+		}
+		return null;
+	}
+
+	private void store(PatternIndex index, EncodedSentence sentence,
+			int start, int end, int[] matches) {
+		boolean atEnd = end == sentence.length;
+		long hash = hash(sentence, start, end, atEnd);
+		int[] key = new int[2 * (end - start)];
+		for (int i = start; i < end; i++) {
+			key[2 * (i - start)] = sentence.tokens[i];
+			key[2 * (i - start) + 1] = sentence.tags[i];
+		}
+		int slot = ((int) hash & bucketMask) * WAYS
+				+ (int) (hash >>> 60 & (WAYS - 1));
+		entries.set(slot, new Entry(hash, index, key, atEnd, matches));
+		hashes[slot] = hash;
+	}
+
+	/**
+	 * @return Long The number of chunks whose matches were remembered
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return Long The number of chunks that were matched and remembered
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return Double The share of chunks whose matches were remembered
+	 */
+	public double getHitRate() {
+		long hits = getHits();
+		long chunks = hits + getMisses();
+		return chunks == 0 ? 0.0 : (double) hits / chunks;
+	}
+
+	private static int mix(int token, int tag) {
+		int h = (token * 31 + tag) * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static long hash(EncodedSentence sentence, int start, int end,
+			boolean atEnd) {
+		long hash = atEnd ? SEED : 0;
+		for (int i = start; i < end; i++)
+			hash = ((hash ^ sentence.tokens[i]) * SEED ^ sentence.tags[i])
+					* SEED;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		return hash ^ (hash >>> 33);
+	}
+
+	/**
+	 * The matches of a chunk, never modified
+	 */
+	private static final class Entry {
+		final long hash;
+		final PatternIndex index;
+		// Token and POS-tag symbols of the span, interleaved
+		final int[] key;
+		final boolean atEnd;
+		// Type, start, end and pattern of every match relative to the chunk,
+		// null if the chunk cannot be remembered
+		final int[] matches;
+
+		Entry(long hash, PatternIndex index, int[] key, boolean atEnd,
+				int[] matches) {
+			this.hash = hash;
+			this.index = index;
+			this.key = key;
+			this.atEnd = atEnd;
+			this.matches = matches;
+		}
+
+		boolean matches(long hash, PatternIndex index,
+				EncodedSentence sentence, int start, int end, boolean atEnd) {
+			if (this.hash != hash || this.index != index
+					|| this.atEnd != atEnd || key.length != 2 * (end - start))
+				return false;
+			for (int i = start; i < end; i++)
+				if (key[2 * (i - start)] != sentence.tokens[i]
+						|| key[2 * (i - start) + 1] != sentence.tags[i])
+					return false;
+			return true;
+		}
+	}
+}
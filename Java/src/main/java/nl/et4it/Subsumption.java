@@ -0,0 +1,116 @@
+package nl.et4it;
+
+/**
+ * Removes pattern matches that are subsumed by other matches.
+ *
+ * All matches of a sentence are filtered in a single sweep over their start
+ * positions. While sweeping, the largest end position seen so far is kept for
+ * the amplifiers, for the attenuators and for all other types, so checking
+ * whether a match is subsumed by any match starting at or before it takes
+ * constant time, whatever set of types it is to be compared against.
+ */
+final class Subsumption {
+	// Pattern types that are compared differently by the legacy semantics
+	private static final int AMPLIFIERS = 0;
+	private static final int ATTENUATORS = 1;
+
+	private Subsumption() {
+	}
+
+	/**
+	 * Removes all matches that are somehow subsumed by other matches
+	 *
+	 * With legacy semantics, a match is subsumed by another match if that one
+	 * starts at or before it and ends after it. The pattern types with
+	 * identifiers 0 and 1 are the amplifiers and the attenuators, and the
+	 * original implementation collected the matches to compare against by
+	 * appending to the lists of these two types, which is kept as is:
+	 * amplifiers are only compared against other types, the attenuator group
+	 * also receives the matches of all types other than the amplifiers and is
+	 * compared against everything but the attenuators, all other types are
+	 * compared against all matches.
+	 *
+	 * With strict semantics, a match is subsumed by any other match, of any
+	 * type, that covers it and is longer than it, and every type only keeps
+	 * its own matches.
+	 *
+	 * @param matches
+	 *            Matches All matches of the sentence, ordered on start
+	 * @param result
+	 *            Array[Matches] Receives the remaining matches, per pattern
+	 *            type
+	 * @param strict
+	 *            Boolean Whether to use strict instead of legacy semantics
+	 */
+	static void removeSubsumed(Matches matches, Matches[] result,
+			boolean strict) {
+		int typeCount = result.length;
+		for (int t = 0; t < typeCount; t++)
+			result[t].clear();
+
+		// Largest end positions of the matches starting before the current
+		// start position, and of those starting at or before it
+		int amplifiersBefore = -1, attenuatorsBefore = -1, othersBefore = -1;
+		int amplifiersEnd = -1, attenuatorsEnd = -1, othersEnd = -1;
+		int i = 0;
+		while (i < matches.size) {
+			int start = matches.starts[i];
+			amplifiersBefore = amplifiersEnd;
+			attenuatorsBefore = attenuatorsEnd;
+			othersBefore = othersEnd;
+
+			// Take in all matches with this start position
+			int groupEnd = i;
+			while (groupEnd < matches.size && matches.starts[groupEnd] == start) {
+				int end = matches.ends[groupEnd];
+				switch (matches.types[groupEnd]) {
+				case AMPLIFIERS:
+					amplifiersEnd = Math.max(amplifiersEnd, end);
+					break;
+				case ATTENUATORS:
+					attenuatorsEnd = Math.max(attenuatorsEnd, end);
+					break;
+				default:
+					othersEnd = Math.max(othersEnd, end);
+				}
+				groupEnd++;
+			}
+
+			// Check all of them
+			for (; i < groupEnd; i++) {
+				int type = matches.types[i];
+				int end = matches.ends[i];
+				if (strict) {
+					int before = Math.max(othersBefore,
+							Math.max(amplifiersBefore, attenuatorsBefore));
+					int upTo = Math.max(othersEnd,
+							Math.max(amplifiersEnd, attenuatorsEnd));
+					if (before < end && upTo <= end)
+						result[type].add(type, start, end, matches.patterns[i]);
+					continue;
+				}
+
+				if (type == AMPLIFIERS) {
+					if (Math.max(attenuatorsEnd, othersEnd) <= end)
+						result[type].add(type, start, end, matches.patterns[i]);
+				} else {
+					if (type != ATTENUATORS
+							&& Math.max(othersEnd,
+									Math.max(amplifiersEnd, attenuatorsEnd)) <= end)
+						result[type].add(type, start, end, matches.patterns[i]);
+					// The attenuator group is ordered on type, so mark the
+					// matches that make it and add them afterwards
+					matches.marks[i] = Math.max(amplifiersEnd, othersEnd) <= end;
+				}
+			}
+		}
+
+		// The attenuator group, type by type
+		if (!strict)
+			for (int t = ATTENUATORS; t < typeCount; t++)
+				for (i = 0; i < matches.size; i++)
+					if (matches.types[i] == t && matches.marks[i])
+						result[ATTENUATORS].add(t, matches.starts[i],
+								matches.ends[i], matches.patterns[i]);
+	}
+}
@@ -0,0 +1,237 @@
+package nl.et4it;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Maps the tokens or POS-tags of a model to consecutive int identifiers, so
+ * that matching can compare ints instead of strings.
+ *
+ * Symbols are added while a model is loaded. Sentences are only looked up,
+ * anything that does not occur in the model gets UNKNOWN which never equals
+ * the identifier of a pattern member.
+ */
+final class SymbolTable {
+	// Identifier of anything that is not in the table
+	static final int UNKNOWN = -1;
+	// Identifiers of the wildcard symbols, these are always present
+	static final int WILDCARD = 0;
+	static final int MULTI_WILDCARD = 1;
+
+	// Open-addressed hash of the symbols, slots hold identifier + 1
+	private int[] slots = new int[64];
+	// The symbols in order of their identifier
+	private String[] symbols = new String[32];
+	private int size = 0;
+
+	SymbolTable() {
+		intern("_");
+		intern("*");
+	}
+
+	private SymbolTable(int[] slots, String[] symbols, int size) {
+		this.slots = slots;
+		this.symbols = symbols;
+		this.size = size;
+	}
+
+	/**
+	 * Copies the table, the copy has the same identifiers and can be added to
+	 * without affecting this table
+	 *
+	 * @return SymbolTable The copy
+	 */
+	SymbolTable copy() {
+		return new SymbolTable(slots.clone(), symbols.clone(), size);
+	}
+
+	/**
+	 * Checks whether this table holds all symbols of another under the same
+	 * identifiers, as copies it was added to do
+	 *
+	 * @param prefix
+	 *            SymbolTable The other table
+	 * @return Boolean Whether this table starts with the other
+	 */
+	boolean startsWith(SymbolTable prefix) {
+		if (prefix.size > size)
+			return false;
+		for (int id = 0; id < prefix.size; id++)
+			if (!symbols[id].equals(prefix.symbols[id]))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Estimates the memory taken by the table and its symbols
+	 *
+	 * @return Long The estimated number of bytes
+	 */
+	long bytes() {
+		long bytes = 48 + 4L * (slots.length + symbols.length);
+		for (int id = 0; id < size; id++)
+			bytes += 40 + symbols[id].length();
+		return bytes;
+	}
+
+	/**
+	 * Writes the table in the binary model format
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		for (int id = 0; id < size; id++)
+			RBEMModelFormat.writeString(out, symbols[id]);
+		RBEMModelFormat.writeInts(out, slots, slots.length);
+	}
+
+	/**
+	 * Reads a table written by write
+	 */
+	static SymbolTable read(ByteBuffer in) {
+		int size = in.getInt();
+		String[] symbols = new String[Math.max(size, 2)];
+		for (int id = 0; id < size; id++)
+			symbols[id] = RBEMModelFormat.readString(in);
+		return new SymbolTable(RBEMModelFormat.readInts(in), symbols, size);
+	}
+
+	/**
+	 * Gets the identifier of a symbol, adding it if it is new
+	 *
+	 * @param symbol
+	 *            String The token or POS-tag
+	 * @return Int The identifier of the symbol
+	 */
+	int intern(String symbol) {
+		int slot = find(symbol);
+		if (slots[slot] != 0)
+			return slots[slot] - 1;
+
+		// New symbol
+		if (size == symbols.length) {
+			String[] grown = new String[size * 2];
+			System.arraycopy(symbols, 0, grown, 0, size);
+			symbols = grown;
+		}
+		symbols[size] = symbol;
+		slots[slot] = ++size;
+
+		// Keep the table at most half full
+		if (size * 2 > slots.length)
+			rehash();
+		return size - 1;
+	}
+
+	/**
+	 * Gets the identifier of a symbol without adding it
+	 *
+	 * @param symbol
+	 *            String The token or POS-tag
+	 * @return Int The identifier of the symbol, UNKNOWN if it is not present
+	 */
+	int lookup(String symbol) {
+		return slots[find(symbol)] - 1;
+	}
+
+	/**
+	 * Gets the identifier of the lower case of a symbol without adding it,
+	 * like lookup(symbol.toLowerCase()). Symbols of ASCII letters and other
+	 * characters that are already lower case are hashed and compared
+	 * lower-cased character by character instead, so the lower case is never
+	 * created.
+	 *
+	 * @param symbol
+	 *            String The token
+	 * @return Int The identifier of its lower case, UNKNOWN if it is not
+	 *         present
+	 */
+	int lookupLowerCase(String symbol) {
+		int length = symbol.length();
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			char c = symbol.charAt(i);
+			if (c >= 'A' && c <= 'Z') {
+				// Lower-cases differently in some locales, like the I in
+				// Turkish
+				if (hasSpecialCasing())
+					return lookup(symbol.toLowerCase());
+				c += 'a' - 'A';
+			} else if (c >= 0x80
+					&& (Character.isSurrogate(c) || Character
+							.toLowerCase(c) != c))
+				// May change length or depend on the characters around it,
+				// like the Greek sigma
+				return lookup(symbol.toLowerCase());
+			hash = 31 * hash + c;
+		}
+
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		while (slots[slot] != 0
+				&& !equalsLowerCase(symbols[slots[slot] - 1], symbol))
+			slot = (slot + 1) & mask;
+		return slots[slot] - 1;
+	}
+
+	private static boolean equalsLowerCase(String lower, String symbol) {
+		if (lower.length() != symbol.length())
+			return false;
+		for (int i = 0; i < lower.length(); i++) {
+			char c = symbol.charAt(i);
+			if (c >= 'A' && c <= 'Z')
+				c += 'a' - 'A';
+			if (lower.charAt(i) != c)
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean hasSpecialCasing() {
+		String language = Locale.getDefault().getLanguage();
+		return language.equals("tr") || language.equals("az")
+				|| language.equals("lt");
+	}
+
+	/**
+	 * Gets the symbol belonging to an identifier
+	 *
+	 * @param id
+	 *            Int The identifier
+	 * @return String The token or POS-tag
+	 */
+	String symbol(int id) {
+		return symbols[id];
+	}
+
+	/**
+	 * @return Int The number of symbols in the table
+	 */
+	int size() {
+		return size;
+	}
+
+	private int find(String symbol) {
+		int mask = slots.length - 1;
+		int slot = mix(symbol.hashCode()) & mask;
+		while (slots[slot] != 0 && !symbols[slots[slot] - 1].equals(symbol))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int id = 0; id < size; id++) {
+			int slot = mix(symbols[id].hashCode()) & mask;
+			while (slots[slot] != 0)
+				slot = (slot + 1) & mask;
+			slots[slot] = id + 1;
+		}
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
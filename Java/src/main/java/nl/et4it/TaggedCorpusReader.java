@@ -0,0 +1,108 @@
+package nl.et4it;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Reads tagged sentences one by one from TreeTagger-style output: one token
+ * per line, followed by its POS-tag and separated from it by whitespace. Any
+ * further columns, like the lemma, are ignored. Sentences are separated by
+ * empty lines and optionally end at tokens with one of a given set of
+ * POS-tags, like SENT. Lines holding just a single column are skipped.
+ *
+ * Only the sentence being read is kept in memory, so a corpus of any size
+ * can be read.
+ */
+public class TaggedCorpusReader implements Closeable {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	// Characters buffered per read from the input
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final BufferedReader reader;
+	// POS-tags that end a sentence
+	private final HashSet<String> endTags;
+	// The tokens and POS-tags of the sentence being read
+	private final List<String> tokens = new ArrayList<String>();
+	private final List<String> tags = new ArrayList<String>();
+
+	/**
+	 * Reads tagged sentences from a stream of UTF-8 text
+	 *
+	 * @param in
+	 *            InputStream The stream
+	 * @param endTags
+	 *            String[] POS-tags that end a sentence
+	 */
+	public TaggedCorpusReader(InputStream in, String... endTags) {
+		this(new BufferedReader(Channels.newReader(Channels.newChannel(in),
+				UTF8.newDecoder(), BUFFER_SIZE), BUFFER_SIZE), endTags);
+	}
+
+	/**
+	 * Reads tagged sentences from a file of UTF-8 text
+	 *
+	 * @param path
+	 *            Path The file
+	 * @param endTags
+	 *            String[] POS-tags that end a sentence
+	 */
+	public TaggedCorpusReader(Path path, String... endTags) throws IOException {
+		this(new BufferedReader(Channels.newReader(Files.newByteChannel(path),
+				UTF8.newDecoder(), BUFFER_SIZE), BUFFER_SIZE), endTags);
+	}
+
+	private TaggedCorpusReader(BufferedReader reader, String[] endTags) {
+		this.reader = reader;
+		this.endTags = new HashSet<String>(Arrays.asList(endTags));
+	}
+
+	/**
+	 * Reads the next sentence
+	 *
+	 * @return Pair[Array[String], Array[String]] The tokens and POS-tags of
+	 *         the sentence, null if there are no more sentences
+	 */
+	public Pair<String[], String[]> next() throws IOException {
+		tokens.clear();
+		tags.clear();
+
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String[] columns = line.trim().split("\\s+");
+			if (columns.length < 2) {
+				// Empty lines end the sentence, if there is one
+				if (columns[0].isEmpty() && !tokens.isEmpty())
+					break;
+				continue;
+			}
+
+			tokens.add(columns[0]);
+			tags.add(columns[1]);
+			if (endTags.contains(columns[1]))
+				break;
+		}
+
+		if (tokens.isEmpty())
+			return null;
+		return new ImmutablePair<String[], String[]>(
+				tokens.toArray(new String[tokens.size()]),
+				tags.toArray(new String[tags.size()]));
+	}
+
+	public void close() throws IOException {
+		reader.close();
+	}
+}
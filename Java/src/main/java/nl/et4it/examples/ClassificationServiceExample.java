@@ -0,0 +1,83 @@
+package nl.et4it.examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nl.et4it.ClassificationService;
+import nl.et4it.RBEMPolarity;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Compares a ClassificationService with a fixed pool of platform threads on
+ * requests that first block on (simulated) I/O and then classify a sentence.
+ * Arguments are the number of requests, the milliseconds every request blocks
+ * and the size of the fixed pool.
+ */
+public class ClassificationServiceExample {
+	static final String[] TOKENS = "this car used to be good , but it is now very bad"
+			.split(" ");
+	static final String[] TAGS = "DT NN VVN TO VB JJ , CC PP VBZ RB RB JJ"
+			.split(" ");
+
+	public static void main(String[] args) {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final int blockMillis = args.length > 1 ? Integer.parseInt(args[1])
+				: 50;
+		int poolSize = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		final RBEMPolarity rbem = new RBEMPolarity();
+		rbem.loadModel("en_UK");
+
+		try {
+			for (int round = 0; round < 3; round++) {
+				// Fixed pool, requests classify on the thread they run on
+				ExecutorService pool = Executors.newFixedThreadPool(poolSize);
+				long start = System.nanoTime();
+				List<Future<Pair<String, Double>>> results = new ArrayList<Future<Pair<String, Double>>>();
+				for (int i = 0; i < requests; i++)
+					results.add(pool.submit(new Callable<Pair<String, Double>>() {
+						public Pair<String, Double> call() throws Exception {
+							Thread.sleep(blockMillis);
+							return rbem.classify(TOKENS, TAGS);
+						}
+					}));
+				for (Future<Pair<String, Double>> result : results)
+					result.get();
+				long fixed = System.nanoTime() - start;
+				pool.shutdown();
+
+				// Service, requests classify through it
+				final ClassificationService service = new ClassificationService(
+						rbem, null);
+				start = System.nanoTime();
+				results.clear();
+				for (int i = 0; i < requests; i++)
+					results.add(service
+							.submit(new Callable<Pair<String, Double>>() {
+								public Pair<String, Double> call()
+										throws Exception {
+									Thread.sleep(blockMillis);
+									return service.classify(TOKENS, TAGS);
+								}
+							}));
+				for (Future<Pair<String, Double>> result : results)
+					result.get();
+				long serviced = System.nanoTime() - start;
+				service.shutdown();
+
+				System.out.println("Round " + (round + 1) + ": fixed pool of "
+						+ poolSize + " " + (long) (requests / (fixed / 1e9))
+						+ " requests/s, service (" + service.getMode() + ") "
+						+ (long) (requests / (serviced / 1e9))
+						+ " requests/s");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
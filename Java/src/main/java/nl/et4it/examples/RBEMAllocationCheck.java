@@ -0,0 +1,251 @@
+package nl.et4it.examples;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.module.ModuleFinder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nl.et4it.PolarityResult;
+import nl.et4it.RBEMEmotion;
+import nl.et4it.RBEMPolarity;
+import nl.et4it.RBEMPolarityEmotion;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Checks that classifying into result holders allocates nothing once the
+ * classifiers have warmed up. Sentences are generated from the patterns of
+ * the bundled en_UK models, so no corpus is needed: random words of the
+ * models with whole patterns mixed in, the first word capitalized. The bytes
+ * the thread allocates are counted around classifying all of them into a
+ * PolarityResult and an array of emotion scores, with RBEMPolarity,
+ * RBEMEmotion and RBEMPolarityEmotion. Exits with 1 if any of them
+ * allocates, or if the JVM cannot count the bytes allocated per thread.
+ *
+ * The emotion axes are computed by the scalar or the vector kernel, see
+ * RBEMEmotion.isVectorized, so the check runs once with each. It runs with
+ * the kernel of this JVM first, then again in a new JVM with the other: with
+ * the jdk.incubator.vector module added if this one runs without it, or
+ * with rbem.vector set to false if this one runs with it. The kernel is
+ * printed with the result of every run. The argument single only runs the
+ * first.
+ */
+public class RBEMAllocationCheck {
+	private static final int SENTENCES = 2000;
+	private static final int MAX_LENGTH = 60;
+	// Share of the positions a whole pattern is started at
+	private static final double PATTERN_RATE = 0.3;
+	private static final int WARM_UP_ROUNDS = 10;
+	private static final int ROUNDS = 3;
+
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	public static void main(String[] args) {
+		boolean passed = check();
+		if (args.length == 0 || !args[0].equals("single"))
+			try {
+				passed &= checkOtherKernel();
+			} catch (Exception e) {
+				e.printStackTrace();
+				passed = false;
+			}
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Runs the check in a new JVM with the other kernel, if this JDK has the
+	 * vector module at all
+	 *
+	 * @return Boolean Whether the check passed or could not be run
+	 */
+	private static boolean checkOtherKernel() throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin"
+				+ File.separator + "java");
+		if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+			command.add("--add-modules");
+			command.add(VECTOR_MODULE);
+			command.add("-Drbem.vector=false");
+		} else if (ModuleFinder.ofSystem().find(VECTOR_MODULE).isPresent()) {
+			command.add("--add-modules");
+			command.add(VECTOR_MODULE);
+		} else {
+			System.out.println("Not checking the vector kernel, this JDK "
+					+ "has no " + VECTOR_MODULE + " module");
+			return true;
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(RBEMAllocationCheck.class.getName());
+		command.add("single");
+		return new ProcessBuilder(command).inheritIO().start().waitFor() == 0;
+	}
+
+	/**
+	 * Counts the bytes allocated classifying with the kernel of this JVM
+	 *
+	 * @return Boolean Whether nothing was allocated
+	 */
+	private static boolean check() {
+		boolean passed = false;
+		try {
+			if (!THREADS.isThreadAllocatedMemorySupported()) {
+				System.out.println("This JVM does not count the bytes "
+						+ "allocated per thread");
+				return false;
+			}
+			THREADS.setThreadAllocatedMemoryEnabled(true);
+
+			List<String[][]> patterns = new ArrayList<String[][]>();
+			readPatterns("/en_UK.rbemp", patterns);
+			readPatterns("/en_UK.rbeme", patterns);
+			String[][][] sentences = generate(patterns, new Random(42));
+
+			RBEMPolarity polarity = new RBEMPolarity();
+			polarity.loadModel("en_UK");
+			RBEMEmotion emotion = new RBEMEmotion();
+			emotion.loadModel("en_UK");
+			RBEMPolarityEmotion both = new RBEMPolarityEmotion();
+			both.loadModel("en_UK");
+			PolarityResult polarityResult = new PolarityResult();
+			double[] emotionScores = new double[4];
+
+			long polarityBytes = 0;
+			long emotionBytes = 0;
+			long bothBytes = 0;
+			for (int round = 0; round < WARM_UP_ROUNDS + ROUNDS; round++) {
+				long start = allocated();
+				for (String[][] s : sentences)
+					polarity.classify(s[0], s[1], polarityResult);
+				long polarityRound = allocated() - start;
+
+				start = allocated();
+				for (String[][] s : sentences)
+					emotion.classify(s[0], s[1], true, emotionScores);
+				long emotionRound = allocated() - start;
+
+				start = allocated();
+				for (String[][] s : sentences)
+					both.classify(s[0], s[1], true, polarityResult,
+							emotionScores);
+				long bothRound = allocated() - start;
+
+				if (round >= WARM_UP_ROUNDS) {
+					polarityBytes += polarityRound;
+					emotionBytes += emotionRound;
+					bothBytes += bothRound;
+				}
+			}
+
+			System.out.println("With the "
+					+ (RBEMEmotion.isVectorized() ? "vector" : "scalar")
+					+ " kernel, " + ROUNDS + " rounds of " + sentences.length
+					+ " sentences after warming up allocated " + polarityBytes
+					+ " bytes classifying polarity, " + emotionBytes
+					+ " bytes classifying emotion and " + bothBytes
+					+ " bytes classifying both");
+			passed = polarityBytes == 0 && emotionBytes == 0
+					&& bothBytes == 0;
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return passed;
+	}
+
+	private static long allocated() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Reads the patterns of a bundled model, every pattern as its tokens and
+	 * its POS-tags
+	 */
+	private static void readPatterns(String resource, List<String[][]> patterns)
+			throws Exception {
+		JsonParser parser = new JsonFactory()
+				.createJsonParser(RBEMAllocationCheck.class
+						.getResourceAsStream(resource));
+		try {
+			// Patterns are the arrays of the model, of members with a token
+			// and a tag
+			List<String> tokens = null;
+			List<String> tags = null;
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				if (token == JsonToken.START_ARRAY) {
+					tokens = new ArrayList<String>();
+					tags = new ArrayList<String>();
+				} else if (token == JsonToken.END_ARRAY) {
+					patterns.add(new String[][] {
+							tokens.toArray(new String[tokens.size()]),
+							tags.toArray(new String[tags.size()]) });
+					tokens = null;
+				} else if (tokens != null && token == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					parser.nextToken();
+					if (field.equals("token"))
+						tokens.add(parser.getText());
+					else if (field.equals("tag"))
+						tags.add(parser.getText());
+				}
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	/**
+	 * Generates the sentences, filling in the wildcards of patterns with
+	 * random words
+	 */
+	private static String[][][] generate(List<String[][]> patterns,
+			Random random) {
+		String[][][] sentences = new String[SENTENCES][][];
+		for (int s = 0; s < SENTENCES; s++) {
+			int length = 1 + random.nextInt(MAX_LENGTH);
+			String[] tokens = new String[length];
+			String[] tags = new String[length];
+			int i = 0;
+			while (i < length) {
+				String[][] pattern = patterns.get(random.nextInt(patterns
+						.size()));
+				int members = random.nextDouble() < PATTERN_RATE ? pattern[0].length
+						: 1;
+				for (int m = 0; m < members && i < length; m++, i++) {
+					String[] word = wordOf(patterns, random);
+					tokens[i] = isWildcard(pattern[0][m]) ? word[0]
+							: pattern[0][m];
+					tags[i] = isWildcard(pattern[1][m]) ? word[1]
+							: pattern[1][m];
+				}
+			}
+			tokens[0] = Character.toUpperCase(tokens[0].charAt(0))
+					+ tokens[0].substring(1);
+			sentences[s] = new String[][] { tokens, tags };
+		}
+		return sentences;
+	}
+
+	/**
+	 * Picks the token and tag of a random pattern member that is no wildcard
+	 */
+	private static String[] wordOf(List<String[][]> patterns, Random random) {
+		while (true) {
+			String[][] pattern = patterns.get(random.nextInt(patterns.size()));
+			int m = random.nextInt(pattern[0].length);
+			if (!isWildcard(pattern[0][m]) && !isWildcard(pattern[1][m]))
+				return new String[] { pattern[0][m], pattern[1][m] };
+		}
+	}
+
+	private static boolean isWildcard(String symbol) {
+		return symbol.equals("_") || symbol.equals("*");
+	}
+}
@@ -0,0 +1,109 @@
+package nl.et4it.examples;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import nl.et4it.PolarityResult;
+import nl.et4it.RBEMEmotion;
+import nl.et4it.RBEMPolarity;
+import nl.et4it.TaggedCorpusReader;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Counts the bytes allocated per classified sentence of a tagged corpus, see
+ * TaggedCorpusReader, once the classifiers have warmed up. Building the
+ * results, a Pair for polarity and a HashMap for emotion, is counted on its
+ * own, so what is left is what classifying itself allocates, which should
+ * be nothing. Classifying into a PolarityResult and an array of emotion
+ * scores instead should allocate nothing at all. The argument is the corpus.
+ * Needs a JVM that counts the bytes allocated per thread, like HotSpot.
+ */
+public class RBEMAllocationExample {
+	private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+	// Keeps the results built below from being optimized away
+	private static Object results;
+
+	public static void main(String[] args) {
+		try {
+			List<Pair<String[], String[]>> sentences = new ArrayList<Pair<String[], String[]>>();
+			TaggedCorpusReader reader = new TaggedCorpusReader(
+					Paths.get(args[0]), "SENT");
+			Pair<String[], String[]> sentence;
+			while ((sentence = reader.next()) != null)
+				sentences.add(sentence);
+			reader.close();
+
+			RBEMPolarity polarity = new RBEMPolarity();
+			polarity.loadModel("en_UK");
+			RBEMEmotion emotion = new RBEMEmotion();
+			emotion.loadModel("en_UK");
+			PolarityResult polarityResult = new PolarityResult();
+			double[] emotionScores = new double[4];
+
+			// The first rounds warm up, the scratch space of the thread then
+			// has grown to fit the longest sentence
+			for (int round = 0; round < 5; round++) {
+				long start = allocated();
+				for (Pair<String[], String[]> s : sentences)
+					polarity.classify(s.getLeft(), s.getRight());
+				long polarityBytes = allocated() - start;
+
+				start = allocated();
+				for (Pair<String[], String[]> s : sentences)
+					emotion.classify(s.getLeft(), s.getRight(), false);
+				long emotionBytes = allocated() - start;
+
+				// The same results, without classifying
+				start = allocated();
+				for (int i = 0; i < sentences.size(); i++)
+					results = new ImmutablePair<String, Double>("neutral",
+							i + 0.5);
+				long polarityResults = allocated() - start;
+
+				start = allocated();
+				for (int i = 0; i < sentences.size(); i++) {
+					HashMap<String, Double> scores = new HashMap<String, Double>();
+					scores.put("joySadness", i + 0.5);
+					scores.put("fearAnger", i + 0.5);
+					scores.put("trustDisgust", i + 0.5);
+					scores.put("surpriseAnticipation", i + 0.5);
+					results = scores;
+				}
+				long emotionResults = allocated() - start;
+
+				// Into holders
+				start = allocated();
+				for (Pair<String[], String[]> s : sentences) {
+					polarity.classify(s.getLeft(), s.getRight(),
+							polarityResult);
+					emotion.classify(s.getLeft(), s.getRight(), false,
+							emotionScores);
+				}
+				long holderBytes = allocated() - start;
+
+				System.out.println("Round " + (round + 1) + ": "
+						+ sentences.size() + " sentences, polarity "
+						+ polarityBytes / sentences.size() + " bytes ("
+						+ (polarityBytes - polarityResults) / sentences.size()
+						+ " besides the result), emotion "
+						+ emotionBytes / sentences.size() + " bytes ("
+						+ (emotionBytes - emotionResults) / sentences.size()
+						+ " besides the result), both into holders "
+						+ holderBytes / sentences.size()
+						+ " bytes per sentence");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static long allocated() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
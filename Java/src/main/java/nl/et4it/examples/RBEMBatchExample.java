@@ -0,0 +1,94 @@
+package nl.et4it.examples;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nl.et4it.RBEMPolarity;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Compares the throughput of classifying sentences one by one with that of
+ * classifyBatch. Takes an optional file with one sentence per line, the
+ * space-separated words and the space-separated POS-tags separated by a tab.
+ * Without it, sentences of skewed lengths are made from the examples.
+ */
+public class RBEMBatchExample {
+	public static void main(String[] args) {
+		RBEMPolarity rbem = new RBEMPolarity();
+		rbem.loadModel("en_UK");
+
+		try {
+			List<String[]> tokens = new ArrayList<String[]>();
+			List<String[]> tags = new ArrayList<String[]>();
+			if (args.length > 0) {
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(new FileInputStream(args[0]),
+								"UTF8"));
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] sentence = line.split("\t");
+					tokens.add(sentence[0].split(" "));
+					tags.add(sentence[1].split(" "));
+				}
+				reader.close();
+			} else {
+				String[][] examples = {
+						{ "this new car is so good !", "DT JJ NN VBZ RB JJ SENT" },
+						{ "this new car is so bad !", "DT JJ NN VBZ RB JJ SENT" },
+						{ "I can ' t remember what I said",
+								"PP NN POS NN VV WP PP VVD" },
+						{ "this car is not so good .", "DT NN VBZ RB RB JJ SENT" },
+						{ "this car used to be good , but it is now very bad",
+								"DT NN VVN TO VB JJ , CC PP VBZ RB RB JJ" } };
+				// Mostly single sentences and now and then a long review
+				Random random = new Random(42);
+				for (int i = 0; i < 200000; i++) {
+					int parts = random.nextInt(50) == 0 ? 1 + random
+							.nextInt(100) : 1;
+					StringBuilder words = new StringBuilder();
+					StringBuilder posTags = new StringBuilder();
+					for (int j = 0; j < parts; j++) {
+						String[] example = examples[random
+								.nextInt(examples.length)];
+						words.append(example[0]).append(' ');
+						posTags.append(example[1]).append(' ');
+					}
+					tokens.add(words.toString().trim().split(" "));
+					tags.add(posTags.toString().trim().split(" "));
+				}
+			}
+
+			for (int round = 0; round < 5; round++) {
+				long start = System.nanoTime();
+				double sequentialTotal = 0.0;
+				for (int i = 0; i < tokens.size(); i++)
+					sequentialTotal += rbem.classify(tokens.get(i),
+							tags.get(i)).getRight();
+				long sequential = System.nanoTime() - start;
+
+				start = System.nanoTime();
+				double batchTotal = 0.0;
+				for (Pair<String, Double> polarity : rbem.classifyBatch(
+						tokens, tags))
+					batchTotal += polarity.getRight();
+				long batch = System.nanoTime() - start;
+
+				System.out.println("Round " + (round + 1) + ": sequential "
+						+ (long) (tokens.size() / (sequential / 1e9))
+						+ " sentences/s, batch "
+						+ (long) (tokens.size() / (batch / 1e9))
+						+ " sentences/s, speedup "
+						+ String.format("%.2f", (double) sequential / batch)
+						+ ", same results "
+						+ (sequentialTotal == batchTotal));
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
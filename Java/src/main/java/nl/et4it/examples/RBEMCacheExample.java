@@ -0,0 +1,81 @@
+package nl.et4it.examples;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import nl.et4it.RBEMPolarity;
+import nl.et4it.ResultCache;
+import nl.et4it.TaggedCorpusReader;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Replays the sentences of a tagged corpus as traffic in which some sentences
+ * come back far more often than others, as retweets and templated messages
+ * do, and classifies it with and without a ResultCache. Arguments are the
+ * corpus, see TaggedCorpusReader, the number of requests and the capacity of
+ * the cache.
+ */
+public class RBEMCacheExample {
+	public static void main(String[] args) {
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 4096;
+
+		try {
+			List<Pair<String[], String[]>> sentences = new ArrayList<Pair<String[], String[]>>();
+			TaggedCorpusReader reader = new TaggedCorpusReader(
+					Paths.get(args[0]), "SENT");
+			Pair<String[], String[]> sentence;
+			while ((sentence = reader.next()) != null)
+				sentences.add(sentence);
+			reader.close();
+
+			// Zipf-like traffic: sentence i is drawn about 1 / (i + 1) times as
+			// often as the first, a copy each time as it would come in
+			Random random = new Random(42);
+			double[] cumulative = new double[sentences.size()];
+			double total = 0;
+			for (int i = 0; i < cumulative.length; i++)
+				cumulative[i] = total += 1.0 / (i + 1);
+			String[][] tokens = new String[requests][];
+			String[][] tags = new String[requests][];
+			for (int r = 0; r < requests; r++) {
+				int i = Arrays.binarySearch(cumulative,
+						random.nextDouble() * total);
+				i = i < 0 ? -i - 1 : i;
+				tokens[r] = sentences.get(i).getLeft().clone();
+				tags[r] = sentences.get(i).getRight().clone();
+			}
+
+			RBEMPolarity rbem = new RBEMPolarity();
+			rbem.loadModel("en_UK");
+			for (int round = 0; round < 3; round++) {
+				rbem.setCache(0);
+				long start = System.nanoTime();
+				for (int r = 0; r < requests; r++)
+					rbem.classify(tokens[r], tags[r]);
+				long uncached = System.nanoTime() - start;
+
+				rbem.setCache(capacity);
+				start = System.nanoTime();
+				for (int r = 0; r < requests; r++)
+					rbem.classify(tokens[r], tags[r]);
+				long cached = System.nanoTime() - start;
+				ResultCache<Pair<String, Double>> cache = rbem.getCache();
+
+				System.out.println("Round " + (round + 1) + ": "
+						+ sentences.size() + " distinct sentences, uncached "
+						+ uncached / 1000000 + " ms, cached " + cached
+						/ 1000000 + " ms, hit rate "
+						+ Math.round(100 * cache.getHitRate()) + "%, "
+						+ cache.getEvictions() + " evictions, "
+						+ cache.getRejections() + " rejections");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
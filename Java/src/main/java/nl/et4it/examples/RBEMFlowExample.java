@@ -0,0 +1,66 @@
+package nl.et4it.examples;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+import nl.et4it.ClassificationProcessor;
+import nl.et4it.RBEMPolarity;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+public class RBEMFlowExample {
+	public static void main(String[] args) {
+		RBEMPolarity rbem = new RBEMPolarity();
+		rbem.loadModel("en_UK");
+
+		try {
+			String[][] sentences = {
+					{ "this new car is so good !", "DT JJ NN VBZ RB JJ SENT" },
+					{ "this new car is so bad !", "DT JJ NN VBZ RB JJ SENT" },
+					{ "this car is not so good .", "DT NN VBZ RB RB JJ SENT" },
+					{ "this car used to be good , but it is now very bad",
+							"DT NN VVN TO VB JJ , CC PP VBZ RB RB JJ" } };
+
+			// Publisher -> RBEM -> subscriber printing one result at a time
+			SubmissionPublisher<Pair<String[], String[]>> publisher = new SubmissionPublisher<Pair<String[], String[]>>();
+			ClassificationProcessor<Pair<String, Double>> processor = rbem
+					.processor();
+			publisher.subscribe(processor);
+
+			final CountDownLatch done = new CountDownLatch(1);
+			processor.subscribe(new Flow.Subscriber<Pair<String, Double>>() {
+				private Flow.Subscription subscription;
+
+				public void onSubscribe(Flow.Subscription subscription) {
+					this.subscription = subscription;
+					subscription.request(1);
+				}
+
+				public void onNext(Pair<String, Double> polarity) {
+					System.out.println(polarity.getLeft() + " "
+							+ polarity.getRight());
+					subscription.request(1);
+				}
+
+				public void onError(Throwable error) {
+					error.printStackTrace();
+					done.countDown();
+				}
+
+				public void onComplete() {
+					done.countDown();
+				}
+			});
+
+			for (String[] sentence : sentences)
+				publisher.submit(new ImmutablePair<String[], String[]>(
+						sentence[0].split(" "), sentence[1].split(" ")));
+			publisher.close();
+			done.await();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package nl.et4it.examples;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import nl.et4it.ClassificationProcessor;
+import nl.et4it.RBEMPolarity;
+
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Checks that a ClassificationProcessor does not hold back a sentence that
+ * arrives while an earlier chunk is still being classified: once that chunk
+ * is published, the later sentence has to follow without upstream sending
+ * anything more. The pool is a single thread that is kept busy for a while,
+ * so the second sentence always arrives while the first is in flight. Exits
+ * with 1 if the second result does not come out within five seconds.
+ */
+public class RBEMFlowTrickleCheck {
+	public static void main(String[] args) {
+		RBEMPolarity rbem = new RBEMPolarity();
+		rbem.loadModel("en_UK");
+		ForkJoinPool pool = new ForkJoinPool(1);
+		rbem.setPool(pool);
+
+		boolean passed = false;
+		try {
+			SubmissionPublisher<Pair<String[], String[]>> publisher = new SubmissionPublisher<Pair<String[], String[]>>();
+			ClassificationProcessor<Pair<String, Double>> processor = rbem
+					.processor();
+			publisher.subscribe(processor);
+
+			final CountDownLatch results = new CountDownLatch(2);
+			processor.subscribe(new Flow.Subscriber<Pair<String, Double>>() {
+				public void onSubscribe(Flow.Subscription subscription) {
+					subscription.request(Long.MAX_VALUE);
+				}
+
+				public void onNext(Pair<String, Double> polarity) {
+					results.countDown();
+				}
+
+				public void onError(Throwable error) {
+					error.printStackTrace();
+				}
+
+				public void onComplete() {
+				}
+			});
+
+			// Keep the only thread of the pool busy, so the first chunk is
+			// still in flight when the second sentence comes in
+			pool.execute(new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(300);
+					} catch (InterruptedException e) {
+					}
+				}
+			});
+			publisher.submit(new ImmutablePair<String[], String[]>(
+					"this new car is so good !".split(" "),
+					"DT JJ NN VBZ RB JJ SENT".split(" ")));
+			Thread.sleep(20);
+			publisher.submit(new ImmutablePair<String[], String[]>(
+					"this car is bad .".split(" "),
+					"DT NN VBZ JJ SENT".split(" ")));
+
+			passed = results.await(5, TimeUnit.SECONDS);
+			System.out.println((2 - results.getCount())
+					+ " of 2 results published before upstream completed");
+			publisher.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		pool.shutdown();
+		System.exit(passed ? 0 : 1);
+	}
+}
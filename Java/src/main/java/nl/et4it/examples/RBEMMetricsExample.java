@@ -0,0 +1,72 @@
+package nl.et4it.examples;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.et4it.InMemoryMetrics;
+import nl.et4it.RBEMEmotion;
+import nl.et4it.RBEMPolarity;
+import nl.et4it.TaggedCorpusReader;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Classifies the sentences of a tagged corpus, see TaggedCorpusReader, with
+ * and without InMemoryMetrics, and prints what the metrics measured. The
+ * argument is the corpus.
+ */
+public class RBEMMetricsExample {
+	public static void main(String[] args) {
+		try {
+			List<Pair<String[], String[]>> sentences = new ArrayList<Pair<String[], String[]>>();
+			TaggedCorpusReader reader = new TaggedCorpusReader(
+					Paths.get(args[0]), "SENT");
+			Pair<String[], String[]> sentence;
+			while ((sentence = reader.next()) != null)
+				sentences.add(sentence);
+			reader.close();
+
+			RBEMPolarity polarity = new RBEMPolarity();
+			polarity.loadModel("en_UK");
+			RBEMEmotion emotion = new RBEMEmotion();
+			emotion.loadModel("en_UK");
+			InMemoryMetrics polarityMetrics = null;
+			InMemoryMetrics emotionMetrics = null;
+			for (int round = 0; round < 3; round++) {
+				polarity.setMetrics(null);
+				long start = System.nanoTime();
+				for (Pair<String[], String[]> s : sentences)
+					polarity.classify(s.getLeft(), s.getRight());
+				long plain = System.nanoTime() - start;
+
+				polarityMetrics = new InMemoryMetrics();
+				polarity.setMetrics(polarityMetrics);
+				start = System.nanoTime();
+				for (Pair<String[], String[]> s : sentences)
+					polarity.classify(s.getLeft(), s.getRight());
+				long measured = System.nanoTime() - start;
+
+				System.out.println("Round " + (round + 1) + ": "
+						+ sentences.size() + " sentences, without metrics "
+						+ plain / 1000000 + " ms, with metrics " + measured
+						/ 1000000 + " ms");
+			}
+
+			emotionMetrics = new InMemoryMetrics();
+			emotion.setMetrics(emotionMetrics);
+			for (Pair<String[], String[]> s : sentences)
+				emotion.classify(s.getLeft(), s.getRight(), false);
+			// A sentence with fewer tags than tokens fails
+			try {
+				emotion.classify(new String[] { "good" }, new String[0], false);
+			} catch (Exception e) {
+			}
+
+			System.out.println("Polarity\n" + polarityMetrics);
+			System.out.println("Emotion\n" + emotionMetrics);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
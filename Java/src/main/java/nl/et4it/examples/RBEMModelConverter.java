@@ -0,0 +1,65 @@
+package nl.et4it.examples;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import nl.et4it.RBEMEmotion;
+import nl.et4it.RBEMModel;
+import nl.et4it.RBEMPolarity;
+
+/**
+ * Converts the JSON models on the classpath to the binary model format, which
+ * classifiers load with loadBinaryModel. The first argument is the directory
+ * to write to, models, the others the languages to convert, by default en_UK,
+ * nl_NL and de_DE. Every language gets a <language>.rbemp.bin and a
+ * <language>.rbeme.bin, and the time taken to load either way is printed.
+ */
+public class RBEMModelConverter {
+	public static void main(String[] args) {
+		Path directory = Paths.get(args.length > 0 ? args[0] : "models");
+		String[] languages = args.length > 1 ? new String[args.length - 1]
+				: new String[] { "en_UK", "nl_NL", "de_DE" };
+		if (args.length > 1)
+			System.arraycopy(args, 1, languages, 0, languages.length);
+
+		try {
+			Files.createDirectories(directory);
+			for (String language : languages) {
+				// Polarity
+				long start = System.nanoTime();
+				RBEMPolarity polarity = new RBEMPolarity();
+				polarity.loadModel(language);
+				long json = System.nanoTime() - start;
+				Path file = directory.resolve(language + ".rbemp.bin");
+				polarity.getModel().store(file);
+				start = System.nanoTime();
+				RBEMPolarity mapped = new RBEMPolarity();
+				mapped.loadBinaryModel(file);
+				report(file, mapped.getModel(), json, System.nanoTime() - start);
+
+				// Emotion
+				start = System.nanoTime();
+				RBEMEmotion emotion = new RBEMEmotion();
+				emotion.loadModel(language);
+				json = System.nanoTime() - start;
+				file = directory.resolve(language + ".rbeme.bin");
+				emotion.getModel().store(file);
+				start = System.nanoTime();
+				RBEMEmotion mappedEmotion = new RBEMEmotion();
+				mappedEmotion.loadBinaryModel(file);
+				report(file, mappedEmotion.getModel(), json, System.nanoTime()
+						- start);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static void report(Path file, RBEMModel model, long json,
+			long binary) throws Exception {
+		System.out.println(file + ": " + model.size() + " patterns, "
+				+ Files.size(file) / 1024 + " KB, JSON load " + json / 1000000
+				+ " ms, binary load " + binary / 1000000 + " ms");
+	}
+}
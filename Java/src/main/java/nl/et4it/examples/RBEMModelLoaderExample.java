@@ -0,0 +1,52 @@
+package nl.et4it.examples;
+
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+
+import nl.et4it.RBEMEmotion;
+import nl.et4it.RBEMModelLoader;
+import nl.et4it.RBEMPolarity;
+
+/**
+ * Loads the polarity and emotion models of en_UK, nl_NL and de_DE, first one
+ * after another through loadModel and then all at the same time through an
+ * RBEMModelLoader, and prints how long either way took.
+ */
+public class RBEMModelLoaderExample {
+	static final String[] LANGUAGES = { "en_UK", "nl_NL", "de_DE" };
+
+	public static void main(String[] args) {
+		try {
+			for (int round = 0; round < 5; round++) {
+				// One after another
+				long start = System.nanoTime();
+				for (String language : LANGUAGES) {
+					new RBEMPolarity().loadModel(language);
+					new RBEMEmotion().loadModel(language);
+				}
+				long sequential = System.nanoTime() - start;
+
+				// All at the same time
+				start = System.nanoTime();
+				RBEMModelLoader loader = new RBEMModelLoader();
+				CompletableFuture<?>[] loaded = new CompletableFuture<?>[LANGUAGES.length * 2];
+				for (int i = 0; i < LANGUAGES.length; i++) {
+					loaded[2 * i] = loader.loadPolarity(LANGUAGES[i]);
+					loaded[2 * i + 1] = loader.loadEmotion(LANGUAGES[i]);
+				}
+				CompletableFuture.allOf(loaded).join();
+				long parallel = System.nanoTime() - start;
+
+				System.out.println("Round " + (round + 1) + ": one after another "
+						+ sequential / 1000000 + " ms, loader "
+						+ parallel / 1000000 + " ms");
+				for (Entry<String, Long> time : loader.getLoadTimes()
+						.entrySet())
+					System.out.println("  " + time.getKey() + " "
+							+ time.getValue() + " ms");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package nl.et4it.examples;
+
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.util.List;
+
+import nl.et4it.PatternProfiler;
+import nl.et4it.RBEMPolarity;
+import nl.et4it.TaggedCorpusReader;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Profiles the patterns of the en_UK polarity model on a tagged corpus, see
+ * TaggedCorpusReader, and prints the patterns that take the most time and
+ * how many never matched. Arguments are the corpus and, optionally, a file
+ * to write the full report to.
+ */
+public class RBEMProfilerExample {
+	public static void main(String[] args) {
+		try {
+			RBEMPolarity rbem = new RBEMPolarity();
+			rbem.loadModel("en_UK");
+			PatternProfiler profiler = new PatternProfiler();
+			rbem.setProfiler(profiler);
+
+			// Once to warm up, so compiling does not count as matching time
+			for (int round = 0; round < 2; round++) {
+				profiler.clear();
+				TaggedCorpusReader reader = new TaggedCorpusReader(
+						Paths.get(args[0]), "SENT");
+				Pair<String[], String[]> sentence;
+				while ((sentence = reader.next()) != null)
+					rbem.classify(sentence.getLeft(), sentence.getRight());
+				reader.close();
+			}
+
+			List<PatternProfiler.Statistics> statistics = profiler
+					.getStatistics();
+			long total = 0;
+			int neverTried = 0;
+			int neverMatched = 0;
+			for (PatternProfiler.Statistics pattern : statistics) {
+				total += pattern.getNanos();
+				if (pattern.getAttempts() == 0)
+					neverTried++;
+				if (pattern.getMatches() == 0)
+					neverMatched++;
+			}
+			System.out.println(statistics.size() + " patterns, " + neverTried
+					+ " never tried, " + neverMatched + " never matched");
+
+			long top = 0;
+			for (int p = 0; p < statistics.size(); p++) {
+				PatternProfiler.Statistics pattern = statistics.get(p);
+				if (p < 10)
+					System.out.println(pattern.getPatternType() + " "
+							+ pattern.getPattern() + ": "
+							+ pattern.getAttempts() + " attempts, "
+							+ pattern.getMatches() + " matches, "
+							+ pattern.getSubsumed() + " subsumed, "
+							+ pattern.getNanos() / 1000 + " us");
+				if (p < statistics.size() / 100)
+					top += pattern.getNanos();
+			}
+			System.out.println("The 1% most expensive patterns take "
+					+ Math.round(100.0 * top / Math.max(1, total))
+					+ "% of the matching time");
+
+			if (args.length > 1) {
+				Writer out = new FileWriter(args[1]);
+				try {
+					profiler.writeReport(out);
+				} finally {
+					out.close();
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
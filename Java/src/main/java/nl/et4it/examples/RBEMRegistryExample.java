@@ -0,0 +1,47 @@
+package nl.et4it.examples;
+
+import java.util.Random;
+
+import nl.et4it.RBEMRegistry;
+
+/**
+ * Serves requests for random languages from an RBEMRegistry whose budget
+ * only fits some of the models, and prints how often models had to be loaded
+ * and how much memory the loaded ones take. The argument is the budget in KB.
+ */
+public class RBEMRegistryExample {
+	static final String[] LANGUAGES = { "en_UK", "nl_NL", "de_DE" };
+
+	public static void main(String[] args) {
+		long budget = 1024L * (args.length > 0 ? Long.parseLong(args[0]) : 512);
+		RBEMRegistry registry = new RBEMRegistry(budget);
+
+		try {
+			Random random = new Random(42);
+			for (int request = 0; request < 10000; request++) {
+				// Most requests are in en_UK
+				String language = LANGUAGES[random.nextInt(4) == 0 ? 1 + random
+						.nextInt(2) : 0];
+				if (random.nextBoolean())
+					registry.polarity(language).classify(
+							"this new car is so good !".split(" "),
+							"DT JJ NN VBZ RB JJ SENT".split(" "));
+				else
+					registry.emotion(language).classify(
+							"this new car is so good !".split(" "),
+							"DT JJ NN VBZ RB JJ SENT".split(" "), false);
+			}
+
+			System.out.println("Budget " + budget / 1024 + " KB, in use "
+					+ registry.memoryUsage() / 1024 + " KB by "
+					+ registry.size() + " models");
+			System.out.println("Hits " + registry.getHits() + ", misses "
+					+ registry.getMisses() + ", evictions "
+					+ registry.getEvictions() + ", mean load "
+					+ registry.getLoadNanos() / Math.max(1, registry.getLoads())
+					/ 1000000 + " ms");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
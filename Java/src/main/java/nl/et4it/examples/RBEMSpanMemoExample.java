@@ -0,0 +1,83 @@
+package nl.et4it.examples;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nl.et4it.RBEMPolarity;
+import nl.et4it.SpanMemo;
+import nl.et4it.TaggedCorpusReader;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Builds messages that mostly quote a few popular sentences of a tagged
+ * corpus with a short comment of their own before them, and classifies them
+ * with and without a SpanMemo. Arguments are the corpus, see
+ * TaggedCorpusReader, the number of messages and the capacity of the memo.
+ */
+public class RBEMSpanMemoExample {
+	public static void main(String[] args) {
+		int messages = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int capacity = args.length > 2 ? Integer.parseInt(args[2]) : 1 << 16;
+
+		try {
+			List<Pair<String[], String[]>> sentences = new ArrayList<Pair<String[], String[]>>();
+			TaggedCorpusReader reader = new TaggedCorpusReader(
+					Paths.get(args[0]), "SENT");
+			Pair<String[], String[]> sentence;
+			while ((sentence = reader.next()) != null)
+				sentences.add(sentence);
+			reader.close();
+
+			// Comments are the start of any sentence, quotes one of the 500
+			// first sentences
+			Random random = new Random(42);
+			String[][] tokens = new String[messages][];
+			String[][] tags = new String[messages][];
+			for (int m = 0; m < messages; m++) {
+				Pair<String[], String[]> comment = sentences.get(random
+						.nextInt(sentences.size()));
+				Pair<String[], String[]> quote = sentences.get(random
+						.nextInt(Math.min(500, sentences.size())));
+				int length = Math.min(comment.getLeft().length,
+						2 + random.nextInt(4));
+				tokens[m] = concat(comment.getLeft(), length, quote.getLeft());
+				tags[m] = concat(comment.getRight(), length, quote.getRight());
+			}
+
+			RBEMPolarity rbem = new RBEMPolarity();
+			rbem.loadModel("en_UK");
+			for (int round = 0; round < 3; round++) {
+				rbem.setSpanMemo(0);
+				long start = System.nanoTime();
+				for (int m = 0; m < messages; m++)
+					rbem.classify(tokens[m], tags[m]);
+				long plain = System.nanoTime() - start;
+
+				rbem.setSpanMemo(capacity);
+				start = System.nanoTime();
+				for (int m = 0; m < messages; m++)
+					rbem.classify(tokens[m], tags[m]);
+				long memoized = System.nanoTime() - start;
+				SpanMemo memo = rbem.getSpanMemo();
+
+				System.out.println("Round " + (round + 1) + ": without memo "
+						+ plain / 1000000 + " ms, with memo " + memoized
+						/ 1000000 + " ms, "
+						+ Math.round(100 * memo.getHitRate())
+						+ "% of chunks remembered");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static String[] concat(String[] first, int length, String[] second) {
+		String[] joined = new String[length + second.length];
+		System.arraycopy(first, 0, joined, 0, length);
+		System.arraycopy(second, 0, joined, length, second.length);
+		return joined;
+	}
+}